@@ -0,0 +1,189 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build.benchmarks;
+
+import com.nominum.build.BuildMetrics;
+import com.nominum.build.PlayRoutesCompiler;
+import com.nominum.build.ResidentCompiler;
+import com.nominum.build.RoutesCompilerOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import play.api.mvc.RequestHeader;
+import play.api.routing.Router;
+import scala.collection.JavaConversions;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time a generated router takes to find the handler for a request, as Play does for every request.
+ *
+ * The routes of a generated project are compiled with each routes generator, the router is compiled
+ * with scalac together with the controllers it calls, and lookups are timed on the loaded router.
+ *
+ * <ul>
+ *   <li>firstRoute: a request for the first route in the file</li>
+ *   <li>lastRoute: a request for the last route, which a router trying every route in turn finds last</li>
+ *   <li>anyRoute: requests for each route in turn</li>
+ *   <li>noRoute: a request no route matches</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class RouterBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class CompiledRouter {
+        @Param({"100", "500"})
+        public int routes;
+
+        @Param({"static", "static-trie"})
+        public String generator;
+
+        SyntheticProject project;
+        Router router;
+        RequestHeader first;
+        RequestHeader last;
+        RequestHeader missing;
+        RequestHeader[] all;
+        int next;
+
+        @Setup(Level.Trial)
+        public void create() throws Exception {
+            project = SyntheticProject.create(0, routes);
+            project.writeControllers(routes);
+            File helper = new File(project.sourceDir, "bench/Requests.scala");
+            helper.getParentFile().mkdirs();
+            Files.write(helper.toPath(), REQUESTS.getBytes(StandardCharsets.UTF_8));
+
+            new PlayRoutesCompiler(new RoutesCompilerOptions().setGenerator(generator).setParallelism(1),
+                    new BuildMetrics("benchmark")).compile(
+                    JavaConversions.asScalaBuffer(Collections.singletonList(project.confDir)).toList(),
+                    project.generatedDir, new File(project.targetDir, "play-routes.index"));
+
+            // the router refers to RoutesPrefix, which Play only generates along with the reverse router
+            File classes = new File(project.targetDir, "classes");
+            classes.mkdirs();
+            scala.collection.Seq<File> sources = ResidentCompiler.sourcesIn(JavaConversions
+                    .asScalaBuffer(Arrays.asList(project.sourceDir, project.generatedDir)).toList());
+            for (ResidentCompiler.Problem problem : JavaConversions.seqAsJavaList(
+                    new ResidentCompiler(classpath(), classes, "UTF-8").compile(sources))) {
+                if (problem.isError()) {
+                    throw new IllegalStateException("Generated router does not compile: " + problem);
+                }
+            }
+
+            ClassLoader loader = new URLClassLoader(new URL[] {classes.toURI().toURL()}, getClass().getClassLoader());
+            router = (Router) loader.loadClass("router.Routes$").getField("MODULE$").get(null);
+            Method request = loader.loadClass("bench.Requests").getMethod("apply", String.class, String.class);
+            all = new RequestHeader[routes];
+            for (int i = 0; i < routes; i++) {
+                String[] methodAndPath = SyntheticProject.request(i);
+                all[i] = (RequestHeader) request.invoke(null, methodAndPath[0], methodAndPath[1]);
+            }
+            first = all[0];
+            last = all[routes - 1];
+            missing = (RequestHeader) request.invoke(null, "GET", "/missing");
+
+            // both routers must resolve every request, or the comparison means nothing
+            for (RequestHeader header : all) {
+                if (router.handlerFor(header).isEmpty()) {
+                    throw new IllegalStateException("No route for " + header);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            project.delete();
+        }
+
+        private static scala.collection.immutable.List<File> classpath() {
+            List<File> classpath = new ArrayList<File>();
+            for (String element : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                classpath.add(new File(element));
+            }
+            return JavaConversions.asScalaBuffer(classpath).toList();
+        }
+    }
+
+    /** Builds request headers for the compiled router, which Play only provides in its test kit. */
+    private static final String REQUESTS =
+            "package bench\n"
+            + "\n"
+            + "import play.api.mvc.{Headers, RequestHeader}\n"
+            + "\n"
+            + "object Requests {\n"
+            + "  def apply(requestMethod: String, requestPath: String): RequestHeader = new RequestHeader {\n"
+            + "    def id = 1L\n"
+            + "    def tags = Map.empty[String, String]\n"
+            + "    def uri = requestPath\n"
+            + "    def path = requestPath\n"
+            + "    def method = requestMethod\n"
+            + "    def version = \"HTTP/1.1\"\n"
+            + "    def queryString = Map.empty[String, Seq[String]]\n"
+            + "    def headers = new Headers(Nil)\n"
+            + "    def remoteAddress = \"127.0.0.1\"\n"
+            + "    def secure = false\n"
+            + "  }\n"
+            + "}\n";
+
+    @Benchmark
+    public Object firstRoute(CompiledRouter state) {
+        return state.router.handlerFor(state.first);
+    }
+
+    @Benchmark
+    public Object lastRoute(CompiledRouter state) {
+        return state.router.handlerFor(state.last);
+    }
+
+    @Benchmark
+    public Object anyRoute(CompiledRouter state) {
+        RequestHeader request = state.all[state.next];
+        state.next = (state.next + 1) % state.all.length;
+        return state.router.handlerFor(request);
+    }
+
+    @Benchmark
+    public Object noRoute(CompiledRouter state) {
+        return state.router.handlerFor(state.missing);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build.benchmarks;
+
+import com.nominum.build.BuildMetrics;
+import com.nominum.build.PlayRoutesCompiler;
+import com.nominum.build.RoutesCompilerOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.collection.JavaConversions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of PlayRoutesCompiler.compile on a generated routes file.
+ *
+ * <ul>
+ *   <li>cold: the first compile in a fresh JVM</li>
+ *   <li>warm: the routes regenerated by a warmed up JVM after a clean</li>
+ *   <li>noChange: nothing changed since the previous compile</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class RoutesCompilerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Project {
+        @Param({"100", "2000"})
+        public int routes;
+
+        @Param({"true"})
+        public boolean generateReverseRouter;
+
+        SyntheticProject project;
+        PlayRoutesCompiler compiler;
+        File indexFile;
+
+        @Setup(Level.Trial)
+        public void create() throws IOException {
+            project = SyntheticProject.create(0, routes);
+            compiler = new PlayRoutesCompiler(new RoutesCompilerOptions().setGenerateReverseRouter(generateReverseRouter),
+                    new BuildMetrics("benchmark"));
+            indexFile = new File(project.targetDir, "play-routes.index");
+            prepare();
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            project.delete();
+        }
+
+        /** Called once the project exists; JMH does not order setup methods across subclasses. */
+        void prepare() {
+        }
+
+        Object compile() {
+            return compiler.compile(JavaConversions.asScalaBuffer(Collections.singletonList(project.confDir)).toList(),
+                    project.generatedDir, indexFile);
+        }
+    }
+
+    /** Project whose outputs are removed before every invocation. */
+    @State(Scope.Benchmark)
+    public static class CleanProject extends Project {
+        @Setup(Level.Invocation)
+        public void clean() throws IOException {
+            project.clean();
+        }
+    }
+
+    /** Project compiled once before measurement starts. */
+    @State(Scope.Benchmark)
+    public static class CompiledProject extends Project {
+        @Override
+        void prepare() {
+            compile();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(5)
+    public Object cold(Project project) {
+        return project.compile();
+    }
+
+    @Benchmark
+    public Object warm(CleanProject project) {
+        return project.compile();
+    }
+
+    @Benchmark
+    public Object noChange(CompiledProject project) {
+        return project.compile();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build.benchmarks;
+
+import com.nominum.build.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.collection.JavaConversions;
+import scala.collection.Seq;
+import scala.collection.immutable.Set;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the single pass source tree scan used to find templates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ScanBenchmark {
+
+    @Param({"1000", "10000"})
+    public int templates;
+
+    private SyntheticProject project;
+    private Seq<String> suffixes;
+    private Set<String> excluded;
+
+    @Setup(Level.Trial)
+    public void create() throws IOException {
+        project = SyntheticProject.create(templates, 0);
+        List<String> suffixList = new ArrayList<String>();
+        for (String ext : SyntheticProject.EXTENSIONS) {
+            suffixList.add(".scala." + ext);
+        }
+        suffixes = JavaConversions.asScalaBuffer(suffixList).toList();
+        excluded = JavaConversions.asScalaBuffer(Collections.singletonList("node_modules")).toSet();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        project.delete();
+    }
+
+    @Benchmark
+    public Object scanTemplates() {
+        return Util.scan(project.sourceDir, suffixes, excluded);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A generated Play project of configurable size, laid out like the sbt style project
+ * in the plugin's smoke test: templates under app/views, routes in conf.
+ */
+public class SyntheticProject {
+
+    /** Template extensions, used in turn so every format is represented. */
+    static final String[] EXTENSIONS = {"html", "js", "txt", "xml"};
+
+    /** Templates per views sub-package, so large projects have a realistic tree depth. */
+    private static final int TEMPLATES_PER_PACKAGE = 50;
+
+    public final File baseDir;
+    public final File sourceDir;
+    public final File confDir;
+    public final File targetDir;
+    public final File generatedDir;
+
+    private SyntheticProject(File baseDir) {
+        this.baseDir = baseDir;
+        this.sourceDir = new File(baseDir, "app");
+        this.confDir = new File(baseDir, "conf");
+        this.targetDir = new File(baseDir, "target");
+        this.generatedDir = new File(targetDir, "generated-sources/play");
+    }
+
+    /**
+     * Create a project in a new temporary directory.
+     *
+     * @param templates number of templates, spread across the four template formats
+     * @param routes number of entries in conf/routes
+     */
+    public static SyntheticProject create(int templates, int routes) throws IOException {
+        SyntheticProject project = new SyntheticProject(Files.createTempDirectory("play-bench").toFile());
+        for (int i = 0; i < templates; i++) {
+            project.writeTemplate(i, 0);
+        }
+        project.writeRoutes(routes);
+        project.generatedDir.mkdirs();
+        return project;
+    }
+
+    public File template(int i) {
+        String ext = EXTENSIONS[i % EXTENSIONS.length];
+        return new File(sourceDir, "views/p" + (i / TEMPLATES_PER_PACKAGE) + "/t" + i + ".scala." + ext);
+    }
+
+    /** Write template i; a different revision gives different content. */
+    public void writeTemplate(int i, int revision) throws IOException {
+        File file = template(i);
+        file.getParentFile().mkdirs();
+        String ext = EXTENSIONS[i % EXTENSIONS.length];
+        StringBuilder body = new StringBuilder("@(title: String, items: Seq[String])\n");
+        if (ext.equals("html")) {
+            body.append("<div class=\"t").append(i).append("\">\n  <h1>@title</h1>\n")
+                .append("  <ul>@for(item <- items) {<li>@item</li>}</ul>\n  <p>revision ").append(revision)
+                .append("</p>\n</div>\n");
+        } else if (ext.equals("js")) {
+            body.append("var t").append(i).append(" = { title: \"@title\", revision: ").append(revision)
+                .append(", items: [@for(item <- items) {\"@item\",}] };\n");
+        } else if (ext.equals("txt")) {
+            body.append("@title\n@for(item <- items) {- @item\n}revision ").append(revision).append("\n");
+        } else {
+            body.append("<t").append(i).append(" revision=\"").append(revision).append("\"><title>@title</title>")
+                .append("@for(item <- items) {<item>@item</item>}</t").append(i).append(">\n");
+        }
+        Files.write(file.toPath(), body.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeRoutes(int routes) throws IOException {
+        confDir.mkdirs();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < routes; i++) {
+            int controller = i / 20;
+            switch (i % 4) {
+                case 0:
+                    body.append("GET     /c").append(controller).append("/r").append(i)
+                        .append("              controllers.C").append(controller).append(".list").append(i).append("()\n");
+                    break;
+                case 1:
+                    body.append("GET     /c").append(controller).append("/r").append(i)
+                        .append("/:id          controllers.C").append(controller).append(".show").append(i).append("(id: Long)\n");
+                    break;
+                case 2:
+                    body.append("POST    /c").append(controller).append("/r").append(i)
+                        .append("              controllers.C").append(controller).append(".create").append(i).append("()\n");
+                    break;
+                default:
+                    body.append("GET     /c").append(controller).append("/r").append(i)
+                        .append("/*path        controllers.C").append(controller).append(".files").append(i)
+                        .append("(path: String, page: Int ?= 1)\n");
+            }
+        }
+        Files.write(new File(confDir, "routes").toPath(), body.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write the scala controllers the routes refer to, so a generated router can be compiled.
+     *
+     * @param routes number of entries in conf/routes
+     */
+    public void writeControllers(int routes) throws IOException {
+        File dir = new File(sourceDir, "controllers");
+        dir.mkdirs();
+        for (int controller = 0; controller * 20 < routes; controller++) {
+            StringBuilder body = new StringBuilder("package controllers\n\nimport play.api.mvc._\n\n")
+                .append("object C").append(controller).append(" extends Controller {\n");
+            for (int i = controller * 20; i < Math.min(routes, (controller + 1) * 20); i++) {
+                switch (i % 4) {
+                    case 0:
+                        body.append("  def list").append(i).append("() = Action(Ok)\n");
+                        break;
+                    case 1:
+                        body.append("  def show").append(i).append("(id: Long) = Action(Ok)\n");
+                        break;
+                    case 2:
+                        body.append("  def create").append(i).append("() = Action(Ok)\n");
+                        break;
+                    default:
+                        body.append("  def files").append(i).append("(path: String, page: Int) = Action(Ok)\n");
+                }
+            }
+            body.append("}\n");
+            Files.write(new File(dir, "C" + controller + ".scala").toPath(),
+                    body.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Method and path of a request handled by route i of conf/routes. */
+    public static String[] request(int i) {
+        String path = "/c" + (i / 20) + "/r" + i;
+        switch (i % 4) {
+            case 0:
+                return new String[] {"GET", path};
+            case 1:
+                return new String[] {"GET", path + "/42"};
+            case 2:
+                return new String[] {"POST", path};
+            default:
+                return new String[] {"GET", path + "/a/b.txt"};
+        }
+    }
+
+    /** Remove everything the compilers wrote, leaving only the sources. */
+    public void clean() throws IOException {
+        delete(targetDir);
+        generatedDir.mkdirs();
+    }
+
+    public void delete() throws IOException {
+        delete(baseDir);
+    }
+
+    private static void delete(File dir) throws IOException {
+        if (!dir.exists()) return;
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
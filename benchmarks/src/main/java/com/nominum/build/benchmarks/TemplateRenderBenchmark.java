@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build.benchmarks;
+
+import com.nominum.build.BuildMetrics;
+import com.nominum.build.ResidentCompiler;
+import com.nominum.build.TemplateCompiler;
+import com.nominum.build.TemplateCompilerOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.Function0;
+import scala.collection.JavaConversions;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and, with <code>-prof gc</code>, allocation of rendering compiled templates, as Play does for every response.
+ *
+ * A template of each format from a generated project is compiled with and without the static
+ * text hoisted into constants, the generated sources are compiled with scalac and each template
+ * is rendered to its body.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TemplateRenderBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class CompiledTemplates {
+        @Param({"false", "true"})
+        public boolean hoistStaticMarkup;
+
+        SyntheticProject project;
+        Function0<?> render;
+
+        @Setup(Level.Trial)
+        public void create() throws Exception {
+            project = SyntheticProject.create(SyntheticProject.EXTENSIONS.length, 0);
+            File helper = new File(project.sourceDir, "bench/Render.scala");
+            helper.getParentFile().mkdirs();
+            Files.write(helper.toPath(), RENDER.getBytes(StandardCharsets.UTF_8));
+
+            new TemplateCompiler(JavaConversions.asScalaBuffer(Collections.<File>emptyList()).toList(),
+                    new TemplateCompilerOptions().setForJava(false).setParallelism(1)
+                            .setHoistStaticMarkup(hoistStaticMarkup),
+                    new BuildMetrics("benchmark")).compile(project.sourceDir, project.generatedDir);
+
+            File classes = new File(project.targetDir, "classes");
+            classes.mkdirs();
+            scala.collection.Seq<File> sources = ResidentCompiler.sourcesIn(JavaConversions
+                    .asScalaBuffer(Arrays.asList(project.sourceDir, project.generatedDir)).toList());
+            for (ResidentCompiler.Problem problem : JavaConversions.seqAsJavaList(
+                    new ResidentCompiler(classpath(), classes, "UTF-8").compile(sources))) {
+                if (problem.isError()) {
+                    throw new IllegalStateException("Generated templates do not compile: " + problem);
+                }
+            }
+
+            ClassLoader loader = new URLClassLoader(new URL[] {classes.toURI().toURL()}, getClass().getClassLoader());
+            render = (Function0<?>) loader.loadClass("bench.Render$").getField("MODULE$").get(null);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            project.delete();
+        }
+
+        private static scala.collection.immutable.List<File> classpath() {
+            List<File> classpath = new ArrayList<File>();
+            for (String element : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                classpath.add(new File(element));
+            }
+            return JavaConversions.asScalaBuffer(classpath).toList();
+        }
+    }
+
+    /** Renders the first template of each format in the generated project, in SyntheticProject.EXTENSIONS order. */
+    private static final String RENDER =
+            "package bench\n"
+            + "\n"
+            + "object Render extends (() => Seq[String]) {\n"
+            + "  private val items = (1 to 10).map(\"item\" + _)\n"
+            + "\n"
+            + "  def apply(): Seq[String] = Seq(\n"
+            + "    views.html.p0.t0(\"title\", items).body,\n"
+            + "    views.js.p0.t1(\"title\", items).body,\n"
+            + "    views.txt.p0.t2(\"title\", items).body,\n"
+            + "    views.xml.p0.t3(\"title\", items).body)\n"
+            + "}\n";
+
+    @Benchmark
+    public Object render(CompiledTemplates state) {
+        return state.render.apply();
+    }
+}
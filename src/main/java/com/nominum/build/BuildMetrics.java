@@ -0,0 +1,220 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wall time per build phase and counts of the work done, for one goal execution
+ * or for the lifetime of the watch goal.
+ *
+ * Reported as a single summary line in the maven log and as a JSON file in
+ * <code>target/play-metrics/</code> so CI can chart build performance over time.
+ * Phases and counters appear in the order they were first recorded.
+ * All methods are thread safe.
+ */
+public class BuildMetrics {
+
+    public static final String FILES_SCANNED = "filesScanned";
+    public static final String TEMPLATES_COMPILED = "templatesCompiled";
+    public static final String TEMPLATES_SKIPPED = "templatesSkipped";
+    public static final String DEPENDENTS_RECOMPILED = "dependentsRecompiled";
+    public static final String ROUTES_COMPILED = "routesCompiled";
+    public static final String ROUTES_SKIPPED = "routesSkipped";
+    public static final String ASSETS_PROCESSED = "assetsProcessed";
+    public static final String ASSETS_SKIPPED = "assetsSkipped";
+    public static final String STALE_OUTPUTS_DELETED = "staleOutputsDeleted";
+    public static final String FILES_CHANGED = "filesChanged";
+    public static final String BYTES_WRITTEN = "bytesWritten";
+    public static final String WATCH_CYCLES = "watchCycles";
+    public static final String CACHE_HITS = "cacheHits";
+    public static final String CACHE_MISSES = "cacheMisses";
+
+    /** Times recorded for a phase. A phase that runs more than once, such as a watch cycle, accumulates. */
+    private static class Phase {
+        int count;
+        long totalNanos;
+        long maxNanos;
+        long lastNanos;
+
+        void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            lastNanos = nanos;
+        }
+
+        void add(Phase other) {
+            count += other.count;
+            totalNanos += other.totalNanos;
+            maxNanos = Math.max(maxNanos, other.maxNanos);
+            lastNanos = other.lastNanos;
+        }
+    }
+
+    private final String goal;
+    private final long started = System.nanoTime();
+    private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+    private final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+
+    public BuildMetrics(String goal) {
+        this.goal = goal;
+    }
+
+    /** @return a start time to pass to {@link #phase(String, long)} */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /** Record the time since <code>start</code> against a phase. */
+    public synchronized void phase(String name, long start) {
+        phase(name).add(System.nanoTime() - start);
+    }
+
+    private Phase phase(String name) {
+        Phase phase = phases.get(name);
+        if (phase == null) {
+            phase = new Phase();
+            phases.put(name, phase);
+        }
+        return phase;
+    }
+
+    public synchronized void count(String name, long amount) {
+        Long current = counters.get(name);
+        counters.put(name, (current == null ? 0 : current) + amount);
+    }
+
+    public synchronized long counter(String name) {
+        Long current = counters.get(name);
+        return current == null ? 0 : current;
+    }
+
+    /** A copy of the counters recorded so far. */
+    public synchronized Map<String, Long> counters() {
+        return new LinkedHashMap<String, Long>(counters);
+    }
+
+    /** Add the phases and counters of another set of metrics, such as a finished watch cycle. */
+    public synchronized void add(BuildMetrics other) {
+        synchronized (other) {
+            for (Map.Entry<String, Phase> entry : other.phases.entrySet()) {
+                phase(entry.getKey()).add(entry.getValue());
+            }
+            for (Map.Entry<String, Long> entry : other.counters.entrySet()) {
+                count(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /** One line such as "compile-templates 412 ms: scan 10 ms, twirl 380 ms; templatesCompiled=3 ...". */
+    public synchronized String summary() {
+        StringBuilder sb = new StringBuilder(goal).append(' ').append(millis(System.nanoTime() - started)).append(" ms");
+        String separator = ": ";
+        for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+            sb.append(separator).append(entry.getKey()).append(' ').append(millis(entry.getValue().totalNanos)).append(" ms");
+            separator = ", ";
+        }
+        separator = "; ";
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            sb.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+            separator = " ";
+        }
+        return sb.toString();
+    }
+
+    public synchronized String toJson() {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"goal\": \"").append(goal).append("\",\n");
+        sb.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+        sb.append("  \"totalMillis\": ").append(millis(System.nanoTime() - started)).append(",\n");
+        sb.append("  \"phases\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+            Phase phase = entry.getValue();
+            sb.append(separator).append("    \"").append(entry.getKey()).append("\": {")
+                    .append("\"count\": ").append(phase.count)
+                    .append(", \"totalMillis\": ").append(millis(phase.totalNanos))
+                    .append(", \"maxMillis\": ").append(millis(phase.maxNanos))
+                    .append(", \"lastMillis\": ").append(millis(phase.lastNanos))
+                    .append('}');
+            separator = ",\n";
+        }
+        sb.append(phases.isEmpty() ? "" : "\n  ").append("},\n");
+        sb.append("  \"counters\": {");
+        separator = "\n";
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            sb.append(separator).append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue());
+            separator = ",\n";
+        }
+        sb.append(counters.isEmpty() ? "" : "\n  ").append("}\n}\n");
+        return sb.toString();
+    }
+
+    /** The file the metrics of a goal are written to. */
+    public File file(File buildDirectory) {
+        return new File(new File(buildDirectory, "play-metrics"), goal + ".json");
+    }
+
+    /**
+     * Log the summary and write the JSON file, replacing the one from the previous run.
+     * Failing to write the file is only worth a warning.
+     */
+    public void report(Log log, File buildDirectory) {
+        log.info(summary());
+        write(log, buildDirectory);
+    }
+
+    /** Write the JSON file without logging the summary. */
+    public void write(Log log, File buildDirectory) {
+        File file = file(buildDirectory);
+        try {
+            write(file);
+        } catch (IOException e) {
+            log.warn("Unable to write build metrics to " + file, e);
+        }
+    }
+
+    private void write(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        File tmp = new File(dir, file.getName() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), Charset.forName("UTF-8"));
+        try {
+            writer.write(toJson());
+        } finally {
+            writer.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects file change events and hands them on in batches.
+ *
+ * A batch is released once no event has arrived for the quiet period, so a burst
+ * of changes such as a branch checkout is processed once rather than once per file.
+ * Repeated events for the same file are coalesced; the latest one wins.
+ * Events arriving while a batch is being handled are collected into the next batch.
+ */
+public class ChangeBatcher implements Runnable {
+
+    /** Files changed since the previous batch. */
+    public static class Batch {
+        public final Set<File> changed;
+        public final Set<File> deleted;
+        /** {@link System#nanoTime()} of the first event in the batch, for measuring the latency of a rebuild. */
+        public final long firstEvent;
+
+        Batch(Set<File> changed, Set<File> deleted, long firstEvent) {
+            this.changed = Collections.unmodifiableSet(changed);
+            this.deleted = Collections.unmodifiableSet(deleted);
+            this.firstEvent = firstEvent;
+        }
+    }
+
+    public interface Handler {
+        void handle(Batch batch) throws Exception;
+    }
+
+    private final long quietPeriod;
+    private final Handler handler;
+    private final Log log;
+
+    private Set<File> changed = new LinkedHashSet<File>();
+    private Set<File> deleted = new LinkedHashSet<File>();
+    private long lastEvent;
+    private long firstEvent;
+
+    /**
+     * @param quietPeriod milliseconds without events before a batch is released
+     */
+    public ChangeBatcher(long quietPeriod, Handler handler, Log log) {
+        this.quietPeriod = quietPeriod;
+        this.handler = handler;
+        this.log = log;
+    }
+
+    /** Start handling batches on a daemon thread. */
+    public void start() {
+        Thread thread = new Thread(this, "play-change-batcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Record a created or modified file. */
+    public synchronized void changed(File file) {
+        eventArrived();
+        deleted.remove(file);
+        changed.add(file);
+    }
+
+    public synchronized void deleted(File file) {
+        eventArrived();
+        changed.remove(file);
+        deleted.add(file);
+    }
+
+    /** Called before the event is added, so repeated events for the only file in a batch keep its start time. */
+    private void eventArrived() {
+        if (changed.isEmpty() && deleted.isEmpty()) {
+            firstEvent = System.nanoTime();
+        }
+        lastEvent = System.currentTimeMillis();
+        notifyAll();
+    }
+
+    public void run() {
+        try {
+            while (true) {
+                Batch batch = nextBatch();
+                try {
+                    handler.handle(batch);
+                } catch (Exception e) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            /* exit normally */
+        }
+    }
+
+    /** Wait for events, then for the quiet period after the last of them. */
+    private synchronized Batch nextBatch() throws InterruptedException {
+        while (changed.isEmpty() && deleted.isEmpty()) {
+            wait();
+        }
+        long remaining;
+        while ((remaining = lastEvent + quietPeriod - System.currentTimeMillis()) > 0) {
+            wait(remaining);
+        }
+        Batch batch = new Batch(changed, deleted, firstEvent);
+        changed = new LinkedHashSet<File>();
+        deleted = new LinkedHashSet<File>();
+        firstEvent = 0;
+        return batch;
+    }
+}
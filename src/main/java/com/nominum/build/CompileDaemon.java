@@ -0,0 +1,322 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import play.twirl.compiler.TemplateCompilationError;
+import scala.collection.JavaConversions;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background JVM that compiles templates and routes for maven builds on the same machine.
+ *
+ * Keeping the Twirl and routes compilers loaded and JIT compiled between builds saves
+ * the warmup every <code>mvn generate-sources</code> otherwise pays. The daemon listens
+ * on a loopback port, accepts only requests carrying the token from its state file,
+ * and exits once it has been idle for the configured timeout.
+ * See {@link DaemonClient} for the side that runs inside maven.
+ */
+public class CompileDaemon {
+
+    static final String TEMPLATES = "templates";
+    static final String ROUTES = "routes";
+    static final String PING = "ping";
+    static final String STOP = "stop";
+
+    static final String OK = "ok";
+    static final String TEMPLATE_ERROR = "template-error";
+    static final String ERROR = "error";
+
+    private final File stateFile;
+    private final long idleTimeout;
+    private final String token = newToken();
+    private final ServerSocket serverSocket;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    /** Builds writing to the same index must not interleave. */
+    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Arguments: the state file to publish the port and token in, and the idle timeout in seconds.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: CompileDaemon <state file> <idle timeout seconds>");
+            System.exit(2);
+        }
+        new CompileDaemon(new File(args[0]), Long.parseLong(args[1]) * 1000).run();
+    }
+
+    CompileDaemon(File stateFile, long idleTimeout) throws IOException {
+        this.stateFile = stateFile;
+        this.idleTimeout = idleTimeout;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    private void run() throws IOException {
+        publishState();
+        startIdleWatch();
+        log("listening on port " + serverSocket.getLocalPort() + ", idle timeout " + idleTimeout / 1000 + "s");
+        try {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException e) {
+                    // closed by the idle watch or a stop request
+                    return;
+                }
+                active.incrementAndGet();
+                Thread handler = new Thread("play-daemon-request") {
+                    @Override
+                    public void run() {
+                        try {
+                            handle(socket);
+                        } finally {
+                            lastActivity = System.currentTimeMillis();
+                            active.decrementAndGet();
+                        }
+                    }
+                };
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    /** Write port and token to the state file, readable only by the current user where supported. */
+    private void publishState() throws IOException {
+        Properties state = new Properties();
+        state.setProperty("port", Integer.toString(serverSocket.getLocalPort()));
+        state.setProperty("token", token);
+        File dir = stateFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        File tmp = new File(dir, stateFile.getName() + ".tmp");
+        Files.deleteIfExists(tmp.toPath());
+        try {
+            Files.createFile(tmp.toPath(),
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(tmp.toPath());
+        }
+        OutputStream out = Files.newOutputStream(tmp.toPath());
+        try {
+            state.store(out, "play-pure-maven-plugin compile daemon");
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void startIdleWatch() {
+        Thread watch = new Thread("play-daemon-idle") {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(Math.min(idleTimeout, 10000));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (active.get() == 0 && System.currentTimeMillis() - lastActivity > idleTimeout) {
+                        log("idle for " + idleTimeout / 1000 + "s, exiting");
+                        close();
+                        return;
+                    }
+                }
+            }
+        };
+        watch.setDaemon(true);
+        watch.start();
+    }
+
+    private void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** Remove the state file unless a newer daemon has replaced it. */
+    private void shutdown() {
+        try {
+            Properties state = DaemonClient.readState(stateFile);
+            if (state != null && token.equals(state.getProperty("token"))) {
+                Files.deleteIfExists(stateFile.toPath());
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            if (!token.equals(in.readUTF())) {
+                log("rejected request with wrong token");
+                return;
+            }
+            String command = in.readUTF();
+            if (PING.equals(command)) {
+                out.writeUTF(OK);
+            } else if (STOP.equals(command)) {
+                out.writeUTF(OK);
+                close();
+            } else if (TEMPLATES.equals(command) || ROUTES.equals(command)) {
+                compile(command, in, out);
+            } else {
+                out.writeUTF(ERROR);
+                out.writeUTF("Unknown command " + command);
+            }
+            out.flush();
+        } catch (IOException e) {
+            log("request failed: " + e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void compile(String command, DataInputStream in, DataOutputStream out) throws IOException {
+        BuildMetrics metrics = new BuildMetrics(command);
+        List<File> outputs;
+        try {
+            if (TEMPLATES.equals(command)) {
+                File sourceDir = new File(in.readUTF());
+                File outputDir = new File(in.readUTF());
+                File indexFile = new File(in.readUTF());
+                TemplateCompilerOptions options = TemplateCompilerOptions.readFrom(in);
+                List<File> classpath = readFiles(in);
+                synchronized (lock(indexFile)) {
+                    outputs = JavaConversions.seqAsJavaList(new TemplateCompiler(
+                            JavaConversions.asScalaBuffer(classpath).toList(), options, metrics)
+                            .compile(sourceDir, outputDir, indexFile));
+                }
+            } else {
+                List<File> directories = readFiles(in);
+                File outputDir = new File(in.readUTF());
+                File indexFile = new File(in.readUTF());
+                RoutesCompilerOptions options = RoutesCompilerOptions.readFrom(in);
+                synchronized (lock(indexFile)) {
+                    outputs = JavaConversions.seqAsJavaList(new PlayRoutesCompiler(options, metrics)
+                            .compile(JavaConversions.asScalaBuffer(directories).toList(), outputDir, indexFile));
+                }
+            }
+        } catch (TemplateCompilationError e) {
+            out.writeUTF(TEMPLATE_ERROR);
+            out.writeUTF(e.source().getPath());
+            out.writeUTF(e.message());
+            out.writeInt(e.line());
+            out.writeInt(e.column());
+            return;
+        } catch (Exception e) {
+            // MojoExecutionException from the routes compiler is not declared by the scala code
+            log(command + " failed: " + e);
+            out.writeUTF(ERROR);
+            out.writeUTF(e.getMessage() == null ? e.toString() : e.getMessage());
+            return;
+        }
+
+        out.writeUTF(OK);
+        writeFiles(out, outputs);
+        Map<String, Long> counters = metrics.counters();
+        out.writeInt(counters.size());
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            out.writeUTF(counter.getKey());
+            out.writeLong(counter.getValue());
+        }
+    }
+
+    private Object lock(File indexFile) {
+        String key = indexFile.getAbsolutePath();
+        Object lock = new Object();
+        Object existing = locks.putIfAbsent(key, lock);
+        return existing == null ? lock : existing;
+    }
+
+    static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+
+    static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    static void writeFiles(DataOutputStream out, List<File> files) throws IOException {
+        List<String> paths = new ArrayList<String>(files.size());
+        for (File file : files) {
+            paths.add(file.getAbsolutePath());
+        }
+        writeStrings(out, paths);
+    }
+
+    static List<File> readFiles(DataInputStream in) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (String path : readStrings(in)) {
+            files.add(new File(path));
+        }
+        return files;
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static void log(String message) {
+        System.out.println(new Date() + " " + message);
+    }
+}
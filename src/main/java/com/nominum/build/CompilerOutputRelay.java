@@ -0,0 +1,263 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import org.apache.maven.plugin.logging.Log;
+import scala.Option;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Relays the output of a forked maven compiler process, such as {@code mvn scala:cc}, to the maven log.
+ *
+ * One thread reads the output as fast as the child writes it, so the child never blocks on a full pipe,
+ * and a second thread logs it in batches. If the log falls behind by more than the capacity, the oldest
+ * waiting lines are dropped and counted instead of being held in memory.
+ *
+ * Compiler errors and warnings are parsed and logged with their file and line, together with the
+ * source excerpt that follows them. The same warning is logged a few times per compile at most and the
+ * rest are counted. Other maven output is logged at debug level only; the most recent lines are kept
+ * so they can be shown if the process fails.
+ */
+public class CompilerOutputRelay {
+
+    /** Times the same warning is logged in one compile before the rest are only counted. */
+    private static final int REPEATED_WARNINGS = 3;
+
+    /** Milliseconds without new output after which a diagnostic is considered complete. */
+    private static final long QUIET_PERIOD = 100;
+
+    private static final Pattern LEVEL = Pattern.compile("^\\[(ERROR|WARNING|INFO|DEBUG)\\] ?(.*)$");
+    private static final Pattern SCALAC = Pattern.compile("^(.+\\.(?:scala|java)):(\\d+): (?:(?:error|warning): )?(.*)$");
+    private static final Pattern JAVAC = Pattern.compile("^(.+\\.java):\\[(\\d+),\\d+\\] (.*)$");
+    private static final Pattern COMPILE_START = Pattern.compile("^Compiling \\d+ .*");
+    private static final Pattern COMPILE_END = Pattern.compile("^(?:\\w+ (?:errors?|warnings?)(?: found)?|Compile failed at .*)$");
+
+    private final BufferedReader reader;
+    private final int capacity;
+    private final Log log;
+
+    private final ArrayDeque<String> pending = new ArrayDeque<String>();
+    private final ArrayDeque<String> recent = new ArrayDeque<String>();
+    private long dropped;
+    private boolean closed;
+
+    /* lines dropped before the current batch, only touched by the logging thread */
+    private long lost;
+
+    /* diagnostic being collected, only touched by the logging thread */
+    private String level;
+    private ResidentCompiler.Problem problem;
+    private final StringBuilder excerpt = new StringBuilder();
+    private final Map<String, Integer> warnings = new HashMap<String, Integer>();
+    private int suppressed;
+
+    private final Thread readerThread = new Thread("play-compiler-output") {
+        @Override
+        public void run() {
+            read();
+        }
+    };
+
+    private final Thread loggerThread = new Thread("play-compiler-log") {
+        @Override
+        public void run() {
+            try {
+                relay();
+            } catch (InterruptedException e) {
+                /* exit normally */
+            }
+        }
+    };
+
+    /**
+     * @param charset the encoding the process writes its output in
+     * @param capacity lines waiting to be logged, and recent lines kept, before the oldest are dropped
+     */
+    public CompilerOutputRelay(InputStream output, Charset charset, int capacity, Log log) {
+        this.reader = new BufferedReader(new InputStreamReader(output, charset));
+        this.capacity = capacity;
+        this.log = log;
+        readerThread.setDaemon(true);
+        loggerThread.setDaemon(true);
+    }
+
+    public void start() {
+        readerThread.start();
+        loggerThread.start();
+    }
+
+    /** Wait for the process output to end and everything read to be logged. */
+    public void join() throws InterruptedException {
+        readerThread.join();
+        loggerThread.join();
+    }
+
+    /** The most recent lines of output, oldest first. */
+    public synchronized List<String> recentOutput() {
+        return new ArrayList<String>(recent);
+    }
+
+    private void read() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                received(line);
+            }
+        } catch (IOException ignored) {
+            /* the process was stopped */
+        } finally {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void received(String line) {
+        if (pending.size() == capacity) {
+            pending.removeFirst();
+            dropped++;
+        }
+        pending.addLast(line);
+        if (recent.size() == capacity) {
+            recent.removeFirst();
+        }
+        recent.addLast(line);
+        notifyAll();
+    }
+
+    private void relay() throws InterruptedException {
+        List<String> batch;
+        while ((batch = nextBatch()) != null) {
+            if (lost > 0) {
+                log.warn(lost + " lines of compiler output were dropped because the log could not keep up");
+                lost = 0;
+            }
+            if (batch.isEmpty()) {
+                // quiet for a while, so the diagnostic being collected has no more lines to come
+                flushDiagnostic();
+                continue;
+            }
+            for (String line : batch) {
+                relay(line);
+            }
+        }
+        flushDiagnostic();
+        flushSuppressed();
+    }
+
+    /**
+     * Wait for output and take all of it.
+     *
+     * @return an empty batch after the quiet period passes without output, null once the output has ended
+     */
+    private synchronized List<String> nextBatch() throws InterruptedException {
+        if (pending.isEmpty() && !closed) {
+            wait(QUIET_PERIOD);
+        }
+        if (pending.isEmpty()) {
+            return closed ? null : new ArrayList<String>();
+        }
+        lost = dropped;
+        dropped = 0;
+        List<String> batch = new ArrayList<String>(pending);
+        pending.clear();
+        return batch;
+    }
+
+    private void relay(String line) {
+        Matcher levelMatch = LEVEL.matcher(line);
+        String lineLevel = levelMatch.matches() ? levelMatch.group(1) : null;
+        String text = levelMatch.matches() ? levelMatch.group(2) : line;
+
+        Matcher diagnostic = SCALAC.matcher(text);
+        if (!diagnostic.matches()) {
+            diagnostic = JAVAC.matcher(text);
+        }
+        if (("ERROR".equals(lineLevel) || "WARNING".equals(lineLevel)) && diagnostic.matches()) {
+            flushDiagnostic();
+            level = lineLevel;
+            problem = new ResidentCompiler.Problem("ERROR".equals(lineLevel),
+                    Option.apply(new File(diagnostic.group(1))), Integer.parseInt(diagnostic.group(2)), diagnostic.group(3));
+            return;
+        }
+        if (problem != null && (lineLevel == null || lineLevel.equals(level)) && !COMPILE_END.matcher(text).matches()) {
+            // source excerpt and caret following a diagnostic, prefixed by scalac and not by javac
+            excerpt.append('\n').append(text);
+            return;
+        }
+        flushDiagnostic();
+
+        if (text.equals("wait for files to compile...") || text.contains("Compile success at")) {
+            // printed by scala:cc after every compile
+            flushSuppressed();
+        } else if ("ERROR".equals(lineLevel)) {
+            log.error(text);
+        } else if ("WARNING".equals(lineLevel)) {
+            warn(text, text);
+        } else if (COMPILE_START.matcher(text).matches()) {
+            log.info(text);
+        } else {
+            log.debug(line);
+        }
+    }
+
+    private void flushDiagnostic() {
+        if (problem == null) return;
+        String message = problem.toString() + excerpt;
+        if (problem.isError()) {
+            log.error(message);
+        } else {
+            warn(problem.message(), message);
+        }
+        problem = null;
+        level = null;
+        excerpt.setLength(0);
+    }
+
+    /** Log a warning unless the same one was already logged often in this compile. */
+    private void warn(String key, String message) {
+        Integer count = warnings.get(key);
+        count = count == null ? 1 : count + 1;
+        warnings.put(key, count);
+        if (count <= REPEATED_WARNINGS) {
+            log.warn(message);
+        } else {
+            suppressed++;
+        }
+    }
+
+    private void flushSuppressed() {
+        if (suppressed > 0) {
+            log.warn(suppressed + " repeated warnings were not shown");
+        }
+        suppressed = 0;
+        warnings.clear();
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import play.twirl.compiler.TemplateCompilationError;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Sends compile requests from a mojo to the {@link CompileDaemon}, starting the daemon when none is running.
+ *
+ * There is one daemon per user and plugin classpath, found through a state file under
+ * <code>~/.play-pure-maven-plugin</code>. Any failure to reach the daemon is reported by
+ * {@link #connect} returning null so the caller can compile in-process instead.
+ */
+public class DaemonClient {
+
+    private static final long STARTUP_TIMEOUT = 30000;
+
+    private static final Object STARTUP_LOCK = new Object();
+
+    private final int port;
+    private final String token;
+
+    private DaemonClient(int port, String token) {
+        this.port = port;
+        this.token = token;
+    }
+
+    /**
+     * Connect to the running daemon, or start one.
+     *
+     * @param idleTimeout seconds a newly started daemon stays alive without requests
+     * @return null when no daemon could be reached
+     */
+    public static DaemonClient connect(long idleTimeout, Log log) {
+        List<File> classpath = pluginClasspath();
+        if (classpath.isEmpty()) {
+            log.warn("Unable to determine the plugin classpath, compiling without the daemon");
+            return null;
+        }
+        File stateFile = stateFile(classpath);
+        try {
+            DaemonClient client = existing(stateFile);
+            if (client != null) {
+                return client;
+            }
+            // modules of a parallel build wait for the daemon the first of them starts
+            synchronized (STARTUP_LOCK) {
+                client = existing(stateFile);
+                if (client != null) {
+                    return client;
+                }
+                log.info("Starting compile daemon, see " + logFile(stateFile));
+                start(stateFile, classpath, idleTimeout);
+                long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT;
+                while (System.currentTimeMillis() < deadline) {
+                    Thread.sleep(100);
+                    client = existing(stateFile);
+                    if (client != null) {
+                        return client;
+                    }
+                }
+            }
+            log.warn("Compile daemon did not start within " + STARTUP_TIMEOUT / 1000 + "s, compiling without it");
+        } catch (IOException e) {
+            log.warn("Unable to start compile daemon, compiling without it: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /** A client for the daemon described by the state file, if that daemon answers. */
+    private static DaemonClient existing(File stateFile) throws IOException {
+        Properties state = readState(stateFile);
+        if (state == null) {
+            return null;
+        }
+        DaemonClient client;
+        try {
+            client = new DaemonClient(Integer.parseInt(state.getProperty("port")), state.getProperty("token"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        try {
+            Socket socket = client.open(CompileDaemon.PING);
+            try {
+                if (CompileDaemon.OK.equals(new DataInputStream(socket.getInputStream()).readUTF())) {
+                    return client;
+                }
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // the daemon exited without removing its state file
+        }
+        return null;
+    }
+
+    private static void start(File stateFile, List<File> classpath, long idleTimeout) throws IOException {
+        File dir = stateFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        StringBuilder path = new StringBuilder();
+        for (File file : classpath) {
+            if (path.length() > 0) path.append(File.pathSeparator);
+            path.append(file.getAbsolutePath());
+        }
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", path.toString(), CompileDaemon.class.getName(),
+                stateFile.getAbsolutePath(), Long.toString(idleTimeout));
+        // requests carry every path the daemon needs, so it must not matter which build started it
+        builder.directory(dir);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.appendTo(logFile(stateFile)));
+        builder.start().getOutputStream().close();
+    }
+
+    /**
+     * Compile templates in the daemon, recording its counters in metrics.
+     *
+     * @param classpath the jars of the Twirl compiler
+     */
+    public List<File> compileTemplates(File sourceDir, File outputDir, File indexFile, TemplateCompilerOptions options,
+                                       List<File> classpath, BuildMetrics metrics)
+            throws IOException, MojoExecutionException {
+        long start = metrics.start();
+        Socket socket = open(CompileDaemon.TEMPLATES);
+        try {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(sourceDir.getAbsolutePath());
+            out.writeUTF(outputDir.getAbsolutePath());
+            out.writeUTF(indexFile.getAbsolutePath());
+            options.writeTo(out);
+            CompileDaemon.writeFiles(out, classpath);
+            out.flush();
+            return readResult(new DataInputStream(socket.getInputStream()), metrics);
+        } finally {
+            socket.close();
+            metrics.phase("daemon", start);
+        }
+    }
+
+    /** Compile every routes file in the given directories in the daemon, recording its counters in metrics. */
+    public List<File> compileRoutes(List<File> directories, File outputDir, File indexFile, RoutesCompilerOptions options,
+                                    BuildMetrics metrics)
+            throws IOException, MojoExecutionException {
+        long start = metrics.start();
+        Socket socket = open(CompileDaemon.ROUTES);
+        try {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            CompileDaemon.writeFiles(out, directories);
+            out.writeUTF(outputDir.getAbsolutePath());
+            out.writeUTF(indexFile.getAbsolutePath());
+            options.writeTo(out);
+            out.flush();
+            return readResult(new DataInputStream(socket.getInputStream()), metrics);
+        } finally {
+            socket.close();
+            metrics.phase("daemon", start);
+        }
+    }
+
+    private List<File> readResult(DataInputStream in, BuildMetrics metrics) throws IOException, MojoExecutionException {
+        String status = in.readUTF();
+        if (CompileDaemon.TEMPLATE_ERROR.equals(status)) {
+            File source = new File(in.readUTF());
+            String message = in.readUTF();
+            throw new TemplateCompilationError(source, message, in.readInt(), in.readInt());
+        }
+        if (CompileDaemon.ERROR.equals(status)) {
+            throw new MojoExecutionException(in.readUTF());
+        }
+        List<File> outputs = CompileDaemon.readFiles(in);
+        int counters = in.readInt();
+        for (int i = 0; i < counters; i++) {
+            metrics.count(in.readUTF(), in.readLong());
+        }
+        return outputs;
+    }
+
+    private Socket open(String command) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeUTF(token);
+        out.writeUTF(command);
+        out.flush();
+        return socket;
+    }
+
+    static Properties readState(File stateFile) throws IOException {
+        if (!stateFile.isFile()) {
+            return null;
+        }
+        Properties state = new Properties();
+        InputStream in = Files.newInputStream(stateFile.toPath());
+        try {
+            state.load(in);
+        } finally {
+            in.close();
+        }
+        return state;
+    }
+
+    /** One daemon per plugin classpath, so builds using different plugin versions never share one. */
+    private static File stateFile(List<File> classpath) {
+        File dir = new File(System.getProperty("user.home"), ".play-pure-maven-plugin");
+        return new File(dir, "daemon-" + Util.sha1(classpath.toString().getBytes()).substring(0, 12) + ".properties");
+    }
+
+    private static File logFile(File stateFile) {
+        return new File(stateFile.getPath().replaceAll("\\.properties$", ".log"));
+    }
+
+    /**
+     * The jars this plugin was loaded from. Maven's plugin API is provided by maven itself rather
+     * than the plugin's class realm, so its jar is added explicitly.
+     */
+    private static List<File> pluginClasspath() {
+        ClassLoader loader = DaemonClient.class.getClassLoader();
+        if (!(loader instanceof URLClassLoader)) {
+            return Collections.emptyList();
+        }
+        List<File> classpath = new ArrayList<File>();
+        for (URL url : ((URLClassLoader) loader).getURLs()) {
+            File file = toFile(url);
+            if (file != null) {
+                classpath.add(file);
+            }
+        }
+        File apiJar = toFile(MojoExecutionException.class.getProtectionDomain().getCodeSource().getLocation());
+        if (apiJar != null && !classpath.contains(apiJar)) {
+            classpath.add(apiJar);
+        }
+        return classpath;
+    }
+
+    static File toFile(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return new File(url.getPath());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import scala.collection.JavaConversions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Copy static assets into the build output directory as fingerprinted and gzipped files.
+ *
+ * An alternative to link-assets for production builds: Play serves the <code>.gz</code>
+ * variants to clients that accept them, and fingerprinted names from
+ * <code>routes.Assets.versioned</code> with far-future cache headers.
+ * Only assets changed since the previous build are processed again.
+ */
+@Mojo(name="digest-assets",defaultPhase=LifecyclePhase.PROCESS_RESOURCES,threadSafe=true)
+public class DigestAssetsMojo extends AbstractMojo {
+
+    @Parameter(defaultValue="${project}",required=true,readonly=true)
+    private MavenProject project;
+
+    /**
+     * Output directory in classpath.
+     */
+    @Parameter(defaultValue="${project.build.outputDirectory}",required=true)
+    private File outputDirectory;
+
+    /**
+     * Location of the assets directory.
+     */
+    @Parameter(defaultValue="${project.basedir}/public",required=true)
+    private File assetDirectory;
+
+    /**
+     * Extensions of the assets that are also written gzip compressed.
+     */
+    @Parameter(required=false)
+    private List<String> compressedExtensions = Arrays.asList(
+            "css", "js", "map", "json", "html", "htm", "txt", "xml", "svg", "csv", "ico", "eot", "ttf", "otf");
+
+    /**
+     * Number of assets processed concurrently.
+     *
+     * Defaults to the number of available processors when zero or unset.
+     */
+    @Parameter(defaultValue="0", required=false)
+    private int parallelism;
+
+    public void execute()
+            throws MojoExecutionException {
+
+        File outputDir = absolutePath(outputDirectory);
+        File assetDir = absolutePath(assetDirectory);
+        if (!assetDir.isDirectory()) {
+            getLog().info("No assets directory at " + assetDir);
+            return;
+        }
+
+        String assetsName = assetDir.getAbsolutePath().substring(assetDir.getParent().length() + 1);
+        File assetsOutput = new File(outputDir, assetsName);
+
+        // a link left by link-assets would have the copies written into the assets directory itself
+        if (Files.isSymbolicLink(assetsOutput.toPath())) {
+            try {
+                Files.delete(assetsOutput.toPath());
+                getLog().info("Removed link " + assetsOutput + " to copy the assets instead");
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to delete link " + assetsOutput, e);
+            }
+        }
+        if (!assetsOutput.exists()) {
+            boolean created = assetsOutput.mkdirs();
+            if (!created) throw new MojoExecutionException("Failed to create output directory");
+        }
+
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+
+        File buildDirectory = new File(project.getBuild().getDirectory());
+        BuildMetrics metrics = new BuildMetrics("digest-assets");
+        try {
+            new AssetPipeline(parallelism, JavaConversions.asScalaBuffer(compressedExtensions).toSet(), metrics)
+                    .process(assetDir, assetsOutput, new File(buildDirectory, "play-assets.index"),
+                            new File(outputDir, assetsName + "-manifest.txt"));
+        } catch (Exception e) {
+            // IOExceptions from the scala side are not declared, so catch them all here
+            throw new MojoExecutionException("Failed to process assets in " + assetDir, e);
+        } finally {
+            metrics.report(getLog(), buildDirectory);
+        }
+    }
+
+    /** Convert Files with relative paths to be relative from the project basedir. **/
+    private File absolutePath(File file) {
+        if (file.isAbsolute()) {
+            return file;
+        }
+        return new File(project.getBasedir(), file.getPath());
+    }
+}
@@ -15,7 +15,6 @@
  */
 package com.nominum.build;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -25,16 +24,25 @@ import org.apache.maven.project.MavenProject;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
 
 /**
  * Link static assets directory into build output directory.
  *
- * This Mojo creates a symbolic link on unix-like systems
- * and uses mklink on Windows.
+ * The link is created with {@link Files#createSymbolicLink} rather than a forked
+ * <code>ln</code> or <code>mklink</code>, and is left untouched when it already
+ * points at the assets directory so nothing that watches the output directory
+ * sees a change. On Windows, creating symbolic links requires administrator rights
+ * or developer mode.
  */
-@Mojo(name="link-assets",defaultPhase=LifecyclePhase.GENERATE_SOURCES)
+@Mojo(name="link-assets",defaultPhase=LifecyclePhase.GENERATE_SOURCES,threadSafe=true)
 public class LinkAssetsMojo extends AbstractMojo {
 
+    /** What linking did to the output directory. */
+    public enum LinkResult { CREATED, UNCHANGED, REPLACED }
+
     @Parameter(defaultValue="${project}",required=true,readonly=true)
     private MavenProject project;
 
@@ -63,39 +71,53 @@ public class LinkAssetsMojo extends AbstractMojo {
 
         String linkName = assetDir.getAbsolutePath().substring(assetDir.getParent().length() + 1);
         File linkTarget = new File(outputDir, linkName);
-   
-        // recreate link if it exists
-        if (linkTarget.exists()) {
-            boolean deleted = linkTarget.delete();
-            if (!deleted) {
-                throw new MojoExecutionException(
-                        "Failed to delete " + linkName + " prior to linking asset directory");
-            }
-        }
 
-        String[] command;
-        getLog().info("OS name:" +System.getProperty("os.name"));
-        if (System.getProperty("os.name").indexOf("indows")>0){
-            command = new String[] {"cmd" , "/c","mklink", "/D", linkTarget.getAbsolutePath(), assetDir.getAbsolutePath()};
-        } else {
-            command = new String[] {"ln", "-s", assetDir.getAbsolutePath(), linkTarget.getAbsolutePath()};
+        BuildMetrics metrics = new BuildMetrics("link-assets");
+        long start = metrics.start();
+        try {
+            LinkResult result = link(linkTarget.toPath(), assetDir.toPath());
+            getLog().info("Linking " + assetDirectory + " to " + linkTarget + ": " + result.name().toLowerCase());
+        } finally {
+            metrics.phase("link", start);
+            metrics.report(getLog(), new File(project.getBuild().getDirectory()));
         }
+    }
 
+    /**
+     * Make <code>link</code> a symbolic link to <code>target</code>.
+     *
+     * An existing link to the same target is kept. A link to anywhere else, a file
+     * or an empty directory in its place is replaced.
+     */
+    static LinkResult link(Path link, Path target) throws MojoExecutionException {
+        target = target.toAbsolutePath().normalize();
+        LinkResult result = LinkResult.CREATED;
         try {
-            getLog().info("Linking " + assetDirectory + " to " + linkTarget);
-
-            Process proc = Runtime.getRuntime().exec(command, null, new File("."));
-
-            int exitVal = proc.waitFor();
-            if (exitVal != 0) {
-                throw new MojoExecutionException("linking assets directory failed. Command: \"" + StringUtils.join(command, " ") + "\"");
+            if (Files.isSymbolicLink(link)) {
+                Path existing = link.getParent().resolve(Files.readSymbolicLink(link)).toAbsolutePath().normalize();
+                if (existing.equals(target)) {
+                    return LinkResult.UNCHANGED;
+                }
+                Files.delete(link);
+                result = LinkResult.REPLACED;
+            } else if (Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+                Files.delete(link);
+                result = LinkResult.REPLACED;
             }
-            getLog().info("Linking " + assetDirectory + " to " + linkTarget+" done");
-        } catch (InterruptedException e) {
-            throw new MojoExecutionException("link command failed", e);
         } catch (IOException e) {
-            throw new MojoExecutionException("Unable to execute link command, run as administrator.", e);
+            throw new MojoExecutionException(
+                    "Failed to delete " + link + " prior to linking asset directory", e);
+        }
+
+        try {
+            Files.createSymbolicLink(link, target);
+        } catch (UnsupportedOperationException e) {
+            throw new MojoExecutionException("Symbolic links are not supported by the file system of " + link, e);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Unable to link " + link + " to " + target + ". On Windows, run as administrator.", e);
         }
+        return result;
     }
 
     /** Convert Files with relative paths to be relative from the project basedir. **/
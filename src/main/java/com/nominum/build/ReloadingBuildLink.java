@@ -0,0 +1,191 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import play.api.PlayException;
+import play.core.BuildLink;
+import play.twirl.compiler.GeneratedSource;
+import play.twirl.compiler.MaybeGeneratedSource;
+import scala.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The link between a Play development server and the run goal.
+ *
+ * The server asks for a reload before handling each request. After a successful compile the
+ * answer is a new classloader for the application classes, so the server restarts the
+ * application from them; the dependencies' classloader is kept, which is what makes a reload
+ * fast. After a failed compile the answer is the error, which the server shows in the browser
+ * until a compile succeeds.
+ */
+public class ReloadingBuildLink implements BuildLink {
+
+    private final File projectPath;
+    private final URL[] classpath;
+    private final ClassLoader parent;
+    private final List<File> sourceRoots;
+    private final Map<String, String> settings;
+
+    private boolean changed = true;
+    private PlayException error;
+    private int generation;
+
+    /**
+     * @param classpath directories holding the application classes and resources
+     * @param parent classloader of the application's dependencies
+     * @param sourceRoots directories searched for the source of a class shown in an error page
+     * @param settings configuration overrides for the application
+     */
+    public ReloadingBuildLink(File projectPath, List<File> classpath, ClassLoader parent, List<File> sourceRoots,
+                              Map<String, String> settings) throws MalformedURLException {
+        this.projectPath = projectPath;
+        this.classpath = new URL[classpath.size()];
+        for (int i = 0; i < classpath.size(); i++) {
+            this.classpath[i] = classpath.get(i).toURI().toURL();
+        }
+        this.parent = parent;
+        this.sourceRoots = new ArrayList<File>(sourceRoots);
+        this.settings = Collections.unmodifiableMap(settings);
+    }
+
+    /** Record the outcome of a compile; the next request reloads the application if it succeeded. */
+    public synchronized void compiled(List<ResidentCompiler.Problem> problems) {
+        for (ResidentCompiler.Problem problem : problems) {
+            if (problem.isError()) {
+                error = new CompilationException(projectPath, problem);
+                return;
+            }
+        }
+        error = null;
+        changed = true;
+    }
+
+    /** @return a new application classloader, null when nothing changed or the compile error */
+    public synchronized Object reload() {
+        if (error != null) return error;
+        if (!changed) return null;
+        changed = false;
+        generation++;
+        final int version = generation;
+        return new URLClassLoader(classpath, parent) {
+            @Override
+            public String toString() {
+                return "ReloadableClassLoader(v" + version + ")";
+            }
+        };
+    }
+
+    /**
+     * Find the source of a class for an error page. Generated templates are traced back to the template.
+     *
+     * @return the source file and line, or null when the source is unknown
+     */
+    public Object[] findSource(String className, Integer line) {
+        String path = className.replace('.', '/');
+        int nested = path.indexOf('$');
+        if (nested >= 0) {
+            path = path.substring(0, nested);
+        }
+        for (File root : sourceRoots) {
+            for (String extension : new String[] {".scala", ".java", ".template.scala"}) {
+                File source = new File(root, path + extension);
+                if (source.isFile()) {
+                    return original(projectPath, source, line);
+                }
+            }
+        }
+        return null;
+    }
+
+    public File projectPath() {
+        return projectPath;
+    }
+
+    public synchronized void forceReload() {
+        changed = true;
+    }
+
+    public Map<String, String> settings() {
+        return settings;
+    }
+
+    /** Build tasks such as the documentation are not available outside sbt. */
+    public Object runTask(String task) {
+        return null;
+    }
+
+    /**
+     * The template a generated source came from, with the line mapped to it, or the source itself.
+     * Generated sources record the template path relative to the project.
+     */
+    private static Object[] original(File projectPath, File source, Integer line) {
+        Option<GeneratedSource> generated = MaybeGeneratedSource.unapply(source);
+        if (generated.isDefined()) {
+            Option<String> path = generated.get().meta().get("SOURCE");
+            File template = path.isDefined() ? TwirlSession.sourceFile(path.get(), projectPath) : null;
+            if (template != null && template.isFile()) {
+                return new Object[] {template, line == null ? null : generated.get().mapLine(line)};
+            }
+        }
+        return new Object[] {source, line};
+    }
+
+    /** A compile error as Play shows it, with the offending source. */
+    private static class CompilationException extends PlayException.ExceptionSource {
+        private final File source;
+        private final Integer line;
+
+        CompilationException(File projectPath, ResidentCompiler.Problem problem) {
+            super("Compilation error", problem.message());
+            Object[] original = problem.file().isDefined()
+                    ? original(projectPath, problem.file().get(), problem.line()) : null;
+            this.source = original == null ? null : (File) original[0];
+            this.line = original == null || problem.line() <= 0 ? null : (Integer) original[1];
+        }
+
+        public Integer line() {
+            return line;
+        }
+
+        public Integer position() {
+            return null;
+        }
+
+        public String input() {
+            if (source == null) return null;
+            try {
+                return new String(Files.readAllBytes(source.toPath()), Charset.forName("UTF-8"));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        public String sourceName() {
+            return source == null ? null : source.getAbsolutePath();
+        }
+    }
+}
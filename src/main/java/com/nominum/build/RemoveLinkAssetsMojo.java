@@ -23,11 +23,13 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 
 /**
  * Remove the link to the static assets directory.
  */
-@Mojo(name="remove-link-assets",defaultPhase=LifecyclePhase.PRE_CLEAN)
+@Mojo(name="remove-link-assets",defaultPhase=LifecyclePhase.PRE_CLEAN,threadSafe=true)
 public class RemoveLinkAssetsMojo extends AbstractMojo {
 
     @Parameter(defaultValue="${project}",required=true,readonly=true)
@@ -59,12 +61,13 @@ public class RemoveLinkAssetsMojo extends AbstractMojo {
         String linkName = assetDir.getAbsolutePath().substring(assetDir.getParent().length() + 1);
         File linkTarget = new File(outputDir, linkName);
 
-        // remove link if it exists
-        if (linkTarget.exists() && linkTarget.isFile()) {
-            boolean deleted = linkTarget.delete();
-            if (!deleted) {
-                throw new MojoExecutionException(
-                        "Failed to delete " + linkName + " prior to linking asset directory");
+        // remove link if it exists; a link to a directory is neither a file nor followed here
+        if (Files.isSymbolicLink(linkTarget.toPath())) {
+            try {
+                Files.delete(linkTarget.toPath());
+                getLog().info("Removed link " + linkTarget);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to delete link " + linkTarget, e);
             }
         }
     }
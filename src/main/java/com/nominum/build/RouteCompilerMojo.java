@@ -22,15 +22,20 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import play.twirl.compiler.TemplateCompilationError;
+import scala.collection.JavaConversions;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Compiles routes.
  *
  * @requiresDependencyResolution compile
  */
-@Mojo(name="compile-routes",defaultPhase=LifecyclePhase.GENERATE_SOURCES)
+@Mojo(name="compile-routes",defaultPhase=LifecyclePhase.GENERATE_SOURCES,threadSafe=true)
 public class RouteCompilerMojo extends AbstractMojo {
 
     @Parameter(defaultValue="${project}",required=true,readonly=true)
@@ -60,6 +65,78 @@ public class RouteCompilerMojo extends AbstractMojo {
     @Parameter(defaultValue="true", required=true)
     private Boolean generateReverseRouter;
 
+    /**
+     * whether reverse routers are generated in a package named after their routes file.
+     *
+     * Required when several routes files refer to controllers in the same package.
+     */
+    @Parameter(defaultValue="false", required=false)
+    private Boolean namespaceReverseRouter;
+
+    /**
+     * whether the reverse routers of each controller are generated into files of their own
+     * rather than one file per package.
+     *
+     * Only the files of controllers whose routes changed are rewritten, so incremental compilation
+     * recompiles a fraction of the reverse routers after a routes edit.
+     */
+    @Parameter(defaultValue="false", required=false)
+    private Boolean splitReverseRouter;
+
+    /**
+     * Directories searched for routes files in addition to the conf directory, such as the conf
+     * directories of sub-projects. A file named <code>routes</code> compiles into the <code>router</code>
+     * package and a file named <code>admin.routes</code> into the <code>admin</code> package.
+     */
+    @Parameter(required=false)
+    private List<File> additionalRoutesDirectories = new ArrayList<File>();
+
+    /**
+     * Routes generator: "static" for the Play 2.3 style static router,
+     * "injected" for a router created by dependency injection.
+     *
+     * "static-trie" and "injected-trie" generate the same routers, except that a request is only
+     * matched against the routes whose method and static path prefix fit it, found in a prefix tree,
+     * instead of against every route in turn. The first matching route in the file still wins.
+     */
+    @Parameter(defaultValue="static", required=false)
+    private String routesGenerator;
+
+    /**
+     * Number of routes files compiled concurrently.
+     *
+     * Defaults to the number of available processors when zero or unset.
+     */
+    @Parameter(defaultValue="0", required=false)
+    private int parallelism;
+
+    /**
+     * whether routes are compiled by a background daemon that stays warm between builds.
+     *
+     * The daemon is started on first use and routes are compiled in-process if it cannot be reached.
+     */
+    @Parameter(property="play.daemon", defaultValue="false", required=false)
+    private Boolean useDaemon;
+
+    /**
+     * Seconds the compile daemon stays alive without requests.
+     */
+    @Parameter(property="play.daemonIdleTimeout", defaultValue="3600", required=false)
+    private long daemonIdleTimeout;
+
+    /**
+     * Directory of generated sources shared between builds, such as a network file system mounted
+     * on every CI agent. A routes file compiled by any build sharing it is restored instead of compiled.
+     */
+    @Parameter(property="play.buildCache", required=false)
+    private File buildCache;
+
+    /**
+     * Megabytes the build cache may occupy before the least recently used entries are evicted.
+     */
+    @Parameter(property="play.buildCacheSize", defaultValue="1024", required=false)
+    private long buildCacheSize;
+
     /**
      * whether templates are compiled with support for Java projects or only Scala.
      *
@@ -70,34 +147,101 @@ public class RouteCompilerMojo extends AbstractMojo {
 
     public void execute()
         throws MojoExecutionException {
+        BuildMetrics metrics = new BuildMetrics("compile-routes");
         try {
-            compileRoutes(
-                    absolutePath(confDirectory),
-                    absolutePath(generatedSourcesDirectory),
-                    project,
-                    generateReverseRouter);
+            List<File> directories = new ArrayList<File>();
+            directories.add(absolutePath(confDirectory));
+            for (File dir : additionalRoutesDirectories) {
+                directories.add(absolutePath(dir));
+            }
+            List<File> generated = useDaemon ? compileInDaemon(directories, metrics) : null;
+            if (generated == null) {
+                compileRoutes(directories, absolutePath(generatedSourcesDirectory), project, options(), metrics);
+            }
+            if (metrics.counter(BuildMetrics.ROUTES_COMPILED) + metrics.counter(BuildMetrics.ROUTES_SKIPPED) == 0) {
+                getLog().info("No routes files found in " + confDirectory);
+            }
         } catch (TemplateCompilationError e) {
             String msg = String.format("Error in template %s:%s %s", e.source().getPath(), e.line(), e.message());
             throw new MojoExecutionException(msg);
+        } finally {
+            metrics.report(getLog(), new File(project.getBuild().getDirectory()));
+        }
+    }
+
+    private RoutesCompilerOptions options() {
+        return new RoutesCompilerOptions()
+                .setGenerator(routesGenerator)
+                .setGenerateReverseRouter(generateReverseRouter)
+                .setNamespaceReverseRouter(namespaceReverseRouter)
+                .setSplitReverseRouter(splitReverseRouter)
+                .setParallelism(parallelism)
+                .setBuildCache(buildCache == null ? null : absolutePath(buildCache), buildCacheSize);
+    }
+
+    /** @return null when the daemon is unavailable and the routes must be compiled in-process */
+    private List<File> compileInDaemon(List<File> directories, BuildMetrics metrics)
+            throws MojoExecutionException {
+        DaemonClient daemon = DaemonClient.connect(daemonIdleTimeout, getLog());
+        if (daemon == null) {
+            return null;
+        }
+        File outputDir = absolutePath(generatedSourcesDirectory);
+        prepareOutputDirectory(outputDir, project);
+        try {
+            return daemon.compileRoutes(directories, outputDir, routesIndexFile(project), options(), metrics);
+        } catch (IOException e) {
+            getLog().warn("Compile daemon failed, compiling in-process instead: " + e);
+            return null;
         }
     }
 
-    /** This static method is usable by other Mojos */
-    public static void compileRoutes(File confDirectory,
-                                     File outputDir,
-                                     MavenProject project,
-                                     boolean generateReverseRouter)
+    /**
+     * This static method is usable by other Mojos.
+     *
+     * @return the generated source files whose content changed
+     */
+    public static List<File> compileRoutes(File confDirectory,
+                                           File outputDir,
+                                           MavenProject project,
+                                           boolean generateReverseRouter)
             throws MojoExecutionException {
+        return compileRoutes(Collections.singletonList(confDirectory), outputDir, project,
+                new RoutesCompilerOptions().setGenerateReverseRouter(generateReverseRouter),
+                new BuildMetrics("compile-routes"));
+    }
+
+    /**
+     * Compile every routes file in the given directories, such as the conf directory and those of sub-projects.
+     * This static method is usable by other Mojos.
+     *
+     * @param metrics receives timings and counts of the work done
+     * @return the generated source files whose content changed
+     */
+    public static List<File> compileRoutes(List<File> directories,
+                                           File outputDir,
+                                           MavenProject project,
+                                           RoutesCompilerOptions options,
+                                           BuildMetrics metrics)
+            throws MojoExecutionException {
+        prepareOutputDirectory(outputDir, project);
+
+        return JavaConversions.seqAsJavaList(new PlayRoutesCompiler(options, metrics).compile(
+                JavaConversions.asScalaBuffer(directories).toList(), outputDir, routesIndexFile(project)));
+    }
+
+    private static void prepareOutputDirectory(File outputDir, MavenProject project) throws MojoExecutionException {
         project.addCompileSourceRoot(outputDir.getAbsolutePath());
 
         if (!outputDir.exists()) {
             boolean created = outputDir.mkdirs();
             if (!created) throw new MojoExecutionException("Failed to create output directory");
         }
+    }
 
-        PlayRoutesCompiler routesCompiler = new PlayRoutesCompiler();
-        routesCompiler.compile(confDirectory, outputDir,
-                new scala.collection.mutable.ArrayBuffer<String>(), generateReverseRouter);
+    /** Record of the last routes compilation kept between builds so unchanged routes are not regenerated. */
+    static File routesIndexFile(MavenProject project) {
+        return new File(project.getBuild().getDirectory(), "play-routes.index");
     }
 
     /** 
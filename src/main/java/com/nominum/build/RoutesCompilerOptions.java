@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of the {@link PlayRoutesCompiler}, shared by the goals compiling routes and the {@link CompileDaemon}.
+ *
+ * Setters return the options so they can be chained. Options left unset have the defaults of the
+ * compile-routes goal.
+ */
+public class RoutesCompilerOptions {
+
+    private String generator = "static";
+    private boolean generateReverseRouter = true;
+    private boolean namespaceReverseRouter;
+    private boolean splitReverseRouter;
+    private List<String> additionalImports = new ArrayList<String>();
+    private int parallelism;
+    private File cacheDirectory;
+    private long cacheSize = 1024;
+
+    public String getGenerator() {
+        return generator;
+    }
+
+    /** "static", "injected", "static-trie" or "injected-trie". */
+    public RoutesCompilerOptions setGenerator(String generator) {
+        this.generator = generator;
+        return this;
+    }
+
+    public boolean isGenerateReverseRouter() {
+        return generateReverseRouter;
+    }
+
+    /** Whether reverse routes are generated. */
+    public RoutesCompilerOptions setGenerateReverseRouter(boolean generateReverseRouter) {
+        this.generateReverseRouter = generateReverseRouter;
+        return this;
+    }
+
+    public boolean isNamespaceReverseRouter() {
+        return namespaceReverseRouter;
+    }
+
+    /**
+     * Whether reverse routers are placed in a package named after the routes file,
+     * needed when several routes files refer to controllers in the same package.
+     */
+    public RoutesCompilerOptions setNamespaceReverseRouter(boolean namespaceReverseRouter) {
+        this.namespaceReverseRouter = namespaceReverseRouter;
+        return this;
+    }
+
+    public boolean isSplitReverseRouter() {
+        return splitReverseRouter;
+    }
+
+    /** Whether each controller's reverse routers are generated into files of their own. */
+    public RoutesCompilerOptions setSplitReverseRouter(boolean splitReverseRouter) {
+        this.splitReverseRouter = splitReverseRouter;
+        return this;
+    }
+
+    public List<String> getAdditionalImports() {
+        return additionalImports;
+    }
+
+    /** Imports added to the generated routers. */
+    public RoutesCompilerOptions setAdditionalImports(List<String> additionalImports) {
+        this.additionalImports = new ArrayList<String>(additionalImports);
+        return this;
+    }
+
+    /** Number of routes files compiled concurrently, one per processor unless set. */
+    public int getParallelism() {
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Zero or less means one per processor. */
+    public RoutesCompilerOptions setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /** @return the build cache to restore generated sources from, or null for none */
+    public BuildCache getBuildCache() {
+        return cacheDirectory == null ? null : new DirectoryBuildCache(cacheDirectory, cacheSize * 1024 * 1024);
+    }
+
+    /**
+     * Share generated sources with other builds through a directory.
+     *
+     * @param directory the cache directory, or null for no cache
+     * @param sizeInMegabytes space the cache may occupy before the least recently used entries are evicted
+     */
+    public RoutesCompilerOptions setBuildCache(File directory, long sizeInMegabytes) {
+        this.cacheDirectory = directory == null ? null : directory.getAbsoluteFile();
+        this.cacheSize = sizeInMegabytes;
+        return this;
+    }
+
+    /** Send the options to the compile daemon. */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(generator);
+        out.writeBoolean(generateReverseRouter);
+        out.writeBoolean(namespaceReverseRouter);
+        out.writeBoolean(splitReverseRouter);
+        CompileDaemon.writeStrings(out, additionalImports);
+        out.writeInt(parallelism);
+        // an empty path stands for no cache
+        out.writeUTF(cacheDirectory == null ? "" : cacheDirectory.getPath());
+        out.writeLong(cacheSize);
+    }
+
+    /** Options sent by {@link #writeTo}. */
+    static RoutesCompilerOptions readFrom(DataInputStream in) throws IOException {
+        RoutesCompilerOptions options = new RoutesCompilerOptions();
+        options.generator = in.readUTF();
+        options.generateReverseRouter = in.readBoolean();
+        options.namespaceReverseRouter = in.readBoolean();
+        options.splitReverseRouter = in.readBoolean();
+        options.additionalImports = CompileDaemon.readStrings(in);
+        options.parallelism = in.readInt();
+        String cacheDirectory = in.readUTF();
+        options.cacheDirectory = cacheDirectory.isEmpty() ? null : new File(cacheDirectory);
+        options.cacheSize = in.readLong();
+        return options;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import org.apache.maven.model.Resource;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import play.core.Build;
+import play.core.BuildDocHandler;
+import play.core.BuildLink;
+import play.core.server.ServerWithStop;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the application in a Play development server inside this JVM and reloads it as sources change.
+ *
+ * Sources are compiled in-process as by the watch goal with compileInProcess. Once a compile succeeds
+ * the next request restarts the application from a new classloader holding only the project's classes
+ * and resources; the dependencies stay loaded, so a reload costs little more than the compile.
+ * Compile errors are shown in the browser instead.
+ *
+ * The project needs a Play server backend among its dependencies, such as play-netty-server.
+ */
+@Mojo(name="run",requiresDependencyResolution=ResolutionScope.RUNTIME)
+public class RunMojo extends ServerMojo {
+
+    /**
+     * HTTP port of the development server.
+     */
+    @Parameter(property="http.port", defaultValue="9000", required=true)
+    private int httpPort;
+
+    /**
+     * Address the development server listens on.
+     */
+    @Parameter(property="http.address", defaultValue="0.0.0.0", required=true)
+    private String httpAddress;
+
+    /**
+     * Configuration overrides for the application, such as play.crypto.secret.
+     */
+    @Parameter(required=false)
+    private Map<String, String> devSettings = new HashMap<String, String>();
+
+    /**
+     * Classpath of the application's dependencies.
+     */
+    @Parameter(defaultValue="${project.runtimeClasspathElements}",required=true,readonly=true)
+    private List<String> runtimeClasspathElements;
+
+    private ClassLoader dependencies;
+
+    private ReloadingBuildLink buildLink;
+
+    @Override
+    protected boolean compilesInProcess() {
+        return true;
+    }
+
+    @Override
+    protected void compiled(List<ResidentCompiler.Problem> problems) {
+        try {
+            buildLink().compiled(problems);
+        } catch (MalformedURLException e) {
+            getLog().error(e);
+        }
+    }
+
+    /** The application reads its configuration from the conf directory, so restart it to apply the change. */
+    @Override
+    protected void configurationChanged(File file) {
+        getLog().debug("Configuration changed: " + file.getName());
+        try {
+            buildLink().forceReload();
+        } catch (MalformedURLException e) {
+            getLog().error(e);
+        }
+    }
+
+    @Override
+    protected void started() throws MojoExecutionException {
+        BuildLink link;
+        try {
+            link = buildLink();
+        } catch (MalformedURLException e) {
+            throw new MojoExecutionException("Invalid classpath element", e);
+        }
+
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(dependencies);
+        try {
+            Class<?> devServer = dependencies.loadClass("play.core.server.DevServerStart");
+            Method start = devServer.getMethod("mainDevHttpMode",
+                    BuildLink.class, BuildDocHandler.class, int.class, String.class);
+            final ServerWithStop server = (ServerWithStop) start.invoke(null,
+                    link, noDocumentation(dependencies), httpPort, httpAddress);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    server.stop();
+                }
+            });
+        } catch (ClassNotFoundException e) {
+            throw new MojoExecutionException("The Play development server was not found; add "
+                    + "com.typesafe.play:play-netty-server_2.11 to the project's dependencies to use the run goal", e);
+        } catch (InvocationTargetException e) {
+            throw new MojoExecutionException("Failed to start the Play development server", e.getTargetException());
+        } catch (Exception e) {
+            throw new MojoExecutionException("Failed to start the Play development server", e);
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+        getLog().info("Play development server listening on " + httpAddress + ":" + httpPort);
+    }
+
+    /** The link is needed by the first compile, which happens before the server starts. */
+    private synchronized ReloadingBuildLink buildLink() throws MalformedURLException {
+        if (buildLink == null) {
+            dependencies = new URLClassLoader(dependencyClasspath(),
+                    new SharedClassLoader(BuildLink.class.getClassLoader()));
+
+            // resources come first so edits to them are seen without copying them to the output directory
+            List<File> classpath = new ArrayList<File>();
+            for (Object resource : project.getResources()) {
+                File dir = new File(((Resource) resource).getDirectory());
+                if (dir.isDirectory()) {
+                    classpath.add(dir);
+                }
+            }
+            classpath.add(new File(project.getBuild().getOutputDirectory()));
+
+            List<File> sourceRoots = new ArrayList<File>();
+            for (Object root : project.getCompileSourceRoots()) {
+                sourceRoots.add(new File(root.toString()));
+            }
+
+            buildLink = new ReloadingBuildLink(baseDirectory, classpath, dependencies, sourceRoots, devSettings);
+        }
+        return buildLink;
+    }
+
+    /** Every runtime dependency, leaving out the project's own classes which are reloaded. */
+    private URL[] dependencyClasspath() throws MalformedURLException {
+        File outputDirectory = new File(project.getBuild().getOutputDirectory()).getAbsoluteFile();
+        List<URL> urls = new ArrayList<URL>();
+        for (String element : runtimeClasspathElements) {
+            File file = new File(element).getAbsoluteFile();
+            if (!file.equals(outputDirectory)) {
+                urls.add(file.toURI().toURL());
+            }
+        }
+        return urls.toArray(new URL[urls.size()]);
+    }
+
+    /** Documentation is served by sbt's documentation handler, which is not available here. */
+    private static BuildDocHandler noDocumentation(ClassLoader dependencies) throws Exception {
+        // the server expects the None of its own scala library
+        final Object none = dependencies.loadClass("scala.None$").getField("MODULE$").get(null);
+        return new BuildDocHandler() {
+            public Object maybeHandleDocRequest(Object request) {
+                return none;
+            }
+        };
+    }
+
+    /**
+     * Gives the application the classes it shares with the build, such as {@link BuildLink},
+     * and nothing else but the JDK, so the application's own Scala and Play versions are used.
+     */
+    private static class SharedClassLoader extends ClassLoader {
+        private final ClassLoader build;
+
+        SharedClassLoader(ClassLoader build) {
+            super(ClassLoader.getSystemClassLoader().getParent());
+            this.build = build;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (Build.sharedClasses.contains(name)) {
+                return build.loadClass(name);
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+}
@@ -1,25 +1,33 @@
 package com.nominum.build;
 
-import org.apache.commons.vfs2.*;
-import org.apache.commons.vfs2.impl.DefaultFileMonitor;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
+import play.routes.compiler.RoutesCompilationError;
+import play.twirl.compiler.TemplateCompilationError;
+import scala.Option;
+import scala.collection.JavaConversions;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * This mojo monitors source files and recompiles templates and routes automatically when they change.
  */
-@Mojo(name="watch")
-public class ServerMojo extends AbstractMojo implements FileListener {
+@Mojo(name="watch",requiresDependencyResolution=ResolutionScope.COMPILE)
+public class ServerMojo extends AbstractMojo implements SourceMonitor.Listener, ChangeBatcher.Handler {
 
     /**
      * The maven project.
@@ -71,6 +79,34 @@ public class ServerMojo extends AbstractMojo implements FileListener {
     @Parameter(defaultValue="true", required=true)
     private Boolean generateReverseRouter;
 
+    /**
+     * whether reverse routers are generated in a package named after their routes file.
+     */
+    @Parameter(defaultValue="false", required=false)
+    private Boolean namespaceReverseRouter;
+
+    /**
+     * whether the reverse routers of each controller are generated into files of their own.
+     */
+    @Parameter(defaultValue="false", required=false)
+    private Boolean splitReverseRouter;
+
+    /**
+     * Directories searched for routes files in addition to the conf directory.
+     */
+    @Parameter(required=false)
+    private List<File> additionalRoutesDirectories = new ArrayList<File>();
+
+    /**
+     * Routes generator: "static" for the Play 2.3 style static router,
+     * "injected" for a router created by dependency injection,
+     * or "static-trie" and "injected-trie" for the same routers dispatching requests through a prefix tree.
+     *
+     * See the parameter of the same name of the compile-routes goal.
+     */
+    @Parameter(defaultValue="static", required=false)
+    private String routesGenerator;
+
     /**
      * whether templates are compiled with support for Java projects or only Scala.
      *
@@ -79,14 +115,70 @@ public class ServerMojo extends AbstractMojo implements FileListener {
     @Parameter(defaultValue="true", required=false)
     private Boolean forJava;
 
+    /**
+     * whether to poll for changes instead of using file system events.
+     *
+     * Polling is used automatically when the file system does not support events.
+     * Set this to "true" for network file systems that accept watches but never report changes.
+     */
+    @Parameter(defaultValue="false", required=false)
+    private Boolean pollForChanges;
+
+    /**
+     * Milliseconds to wait after the last file change before recompiling,
+     * so that a burst of changes is compiled once.
+     */
+    @Parameter(defaultValue="100", required=false)
+    private long quietPeriod;
+
+    /**
+     * whether scala and java sources are compiled inside this JVM rather than by a forked "mvn scala:cc".
+     *
+     * The compiler is kept warm between changes and only the sources that changed, or were regenerated
+     * from changed templates and routes, are recompiled.
+     */
+    @Parameter(property="compileInProcess", defaultValue="false", required=false)
+    private Boolean compileInProcess;
+
+    /**
+     * Classpath used by the in-process compiler.
+     */
+    @Parameter(defaultValue="${project.compileClasspathElements}",required=true,readonly=true)
+    private List<String> classpathElements;
+
+    /** Encoding the forked scala:cc is told to write its output in. */
+    private static final Charset OUTPUT_ENCODING = Charset.forName("UTF-8");
+
+    /** Lines of scala:cc output waiting to be logged, and recent lines kept for reporting a failure. */
+    private static final int OUTPUT_LINES = 1000;
+
+    private ChangeBatcher batcher;
+
+    private ResidentCompiler compiler;
+
+    /** Sources of the last failed compile by the in-process compiler. */
+    private final Set<File> failedSources = new LinkedHashSet<File>();
+
+    /** Totals for the whole watch session, rewritten to target/play-metrics/watch.json after every cycle. */
+    private final BuildMetrics sessionMetrics = new BuildMetrics("watch");
+
     public void execute() throws MojoExecutionException, MojoFailureException {
 
+        if (compilesInProcess()) {
+            startResidentCompiler();
+        }
+
+        batcher = new ChangeBatcher(quietPeriod, this, getLog());
+        batcher.start();
+
         try {
             setupMonitor();
-        } catch (FileSystemException e) {
+        } catch (IOException e) {
             throw new MojoExecutionException("Cannot set the file monitor on the source folder", e);
         }
 
+        started();
+
         String MESSAGE = "You're running the watch mode. Modified templates and " +
                 "routes will be processed automatically. \n" +
                 "To leave the watch mode, just hit CTRL+C.\n";
@@ -94,7 +186,9 @@ public class ServerMojo extends AbstractMojo implements FileListener {
         getLog().info(MESSAGE);
 
         try {
-            invokeScalaCC();
+            if (compiler == null) {
+                invokeScalaCC();
+            }
 
             // just wait around until killed
             while (true) {
@@ -105,42 +199,51 @@ public class ServerMojo extends AbstractMojo implements FileListener {
         }
     }
 
-    private static class StreamConsumer extends Thread {
+    /** Whether sources are compiled by the in-process compiler instead of a forked scala:cc. */
+    protected boolean compilesInProcess() {
+        return compileInProcess;
+    }
 
-        private final Process process;
+    /** Called once the sources are compiled and changes are being watched. */
+    protected void started() throws MojoExecutionException {
+    }
 
-        public StreamConsumer(Process process) {
-            this.process = process;
-        }
+    /**
+     * Called once the sources are first compiled, and after every batch of changes whether or not
+     * anything needed recompiling, so an error goes away when the change causing it is reverted.
+     *
+     * @param problems the errors and warnings reported by the template, routes and in-process compilers;
+     *                 the compile succeeded if none is an error
+     */
+    protected void compiled(List<ResidentCompiler.Problem> problems) {
+    }
 
-        @Override
-        public void run() {
-            try {
-                InputStreamReader inputStream = new InputStreamReader(process.getInputStream());
-                BufferedReader bufferedOut = new BufferedReader(inputStream);
-
-                String line;
-                while ((line = bufferedOut.readLine()) != null) {
-                    // HACK filter out noise from slightly broken 3.1.0 version of the plugin
-                    if (line.equals("[INFO] wait for files to compile...")
-                     || line.contains("Compile success at")) continue;
-                    System.out.println(line);
-                }
-            }
-            catch (IOException ignored) {
-            }
-        }
+    /** Called when a file in the conf directory other than a routes file is created, changed or deleted. */
+    protected void configurationChanged(File file) {
     }
 
     private void invokeScalaCC() throws MojoExecutionException {
-        ProcessBuilder processBuilder = new ProcessBuilder("mvn", "scala:cc");
+        // batch mode keeps colour codes out of the output and the encoding is fixed so it can be decoded
+        ProcessBuilder processBuilder = new ProcessBuilder("mvn", "-B", "scala:cc");
         processBuilder.redirectErrorStream(true);
+        String mavenOpts = processBuilder.environment().get("MAVEN_OPTS");
+        processBuilder.environment().put("MAVEN_OPTS",
+                (mavenOpts == null ? "" : mavenOpts + " ") + "-Dfile.encoding=" + OUTPUT_ENCODING.name());
         try {
             final Process scalaCC = processBuilder.start();
-            StreamConsumer streamConsumer = new StreamConsumer(scalaCC);
-            streamConsumer.start();
+            CompilerOutputRelay relay = new CompilerOutputRelay(scalaCC.getInputStream(), OUTPUT_ENCODING,
+                    OUTPUT_LINES, getLog());
+            relay.start();
             try {
-                scalaCC.waitFor();
+                int exitCode = scalaCC.waitFor();
+                relay.join();
+                if (exitCode != 0) {
+                    StringBuilder output = new StringBuilder();
+                    for (String line : relay.recentOutput()) {
+                        output.append('\n').append(line);
+                    }
+                    getLog().error("scala:cc exited with code " + exitCode + ". Its last output was:" + output);
+                }
             } finally {
                 stopProcess(scalaCC);
             }
@@ -168,42 +271,285 @@ public class ServerMojo extends AbstractMojo implements FileListener {
         process.destroy();
     }
 
-    private void setupMonitor() throws FileSystemException {
+    /** Create the in-process compiler and bring the output directory up to date with a full compile. */
+    private void startResidentCompiler() throws MojoExecutionException {
+        List<File> classpath = new ArrayList<File>();
+        for (String element : classpathElements) {
+            classpath.add(new File(element));
+        }
+        File outputDirectory = new File(project.getBuild().getOutputDirectory());
+        if (!outputDirectory.exists() && !outputDirectory.mkdirs()) {
+            throw new MojoExecutionException("Failed to create output directory");
+        }
+        String encoding = project.getProperties().getProperty("project.build.sourceEncoding", "UTF-8");
+        compiler = new ResidentCompiler(JavaConversions.asScalaBuffer(classpath).toList(), outputDirectory, encoding);
+
+        BuildMetrics metrics = new BuildMetrics("watch startup");
+        compileTemplatesAndRoutes(metrics);
+        List<File> sources = allSources();
+        getLog().info("Compiling " + sources.size() + " source files to " + outputDirectory);
+        compiled(compileSources(sources, metrics));
+        getLog().info(metrics.summary());
+        sessionMetrics.add(metrics);
+        sessionMetrics.write(getLog(), buildDirectory);
+    }
+
+    /** Every scala and java source in the project's compile source roots. */
+    private List<File> allSources() {
+        List<File> roots = new ArrayList<File>();
+        for (Object root : project.getCompileSourceRoots()) {
+            roots.add(new File(root.toString()));
+        }
+        return new ArrayList<File>(JavaConversions.seqAsJavaList(
+                ResidentCompiler.sourcesIn(JavaConversions.asScalaBuffer(roots).toList())));
+    }
+
+    /**
+     * Compile with the in-process compiler and report problems through the maven log.
+     *
+     * Sources that failed to compile last time are compiled again, since they have no classes and
+     * their errors stand until they compile.
+     */
+    private List<ResidentCompiler.Problem> compileSources(List<File> sources, BuildMetrics metrics) {
+        Set<File> batch = new LinkedHashSet<File>(sources);
+        for (File file : failedSources) {
+            if (file.isFile()) {
+                batch.add(file);
+            }
+        }
+        failedSources.clear();
+        if (batch.isEmpty()) return Collections.emptyList();
+        long start = System.currentTimeMillis();
+        long phaseStart = metrics.start();
+        boolean failed = false;
+        List<ResidentCompiler.Problem> problems =
+                JavaConversions.seqAsJavaList(compiler.compile(JavaConversions.asScalaSet(batch).toList()));
+        for (ResidentCompiler.Problem problem : problems) {
+            if (problem.isError()) {
+                failed = true;
+                getLog().error(problem.toString());
+            } else {
+                getLog().warn(problem.toString());
+            }
+        }
+        metrics.phase("scalac", phaseStart);
+        if (failed) {
+            failedSources.addAll(batch);
+        } else {
+            getLog().info("Compiled " + batch.size() + " files in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        return problems;
+    }
+
+    private void setupMonitor() throws IOException {
         getLog().info("Set up file monitor on " + sourceDirectory);
-        FileSystemManager fsManager = VFS.getManager();
-        FileObject dir = fsManager.resolveFile(sourceDirectory.getAbsolutePath());
+        List<File> directories = new ArrayList<File>();
+        directories.add(sourceDirectory);
+        directories.add(confDirectory);
+        for (File dir : additionalRoutesDirectories()) {
+            if (dir.isDirectory()) {
+                directories.add(dir);
+            }
+        }
+        SourceMonitor.start(directories, this, pollForChanges, getLog());
+    }
+
+    /** Only routes files are of interest in the conf and routes directories. */
+    private boolean isIgnored(File file) {
+        return inRoutesDirectory(file) && !PlayRoutesCompiler.isRoutesFile(file);
+    }
+
+    private List<File> compileRoutes(BuildMetrics metrics) throws MojoExecutionException {
+        List<File> directories = new ArrayList<File>();
+        directories.add(confDirectory);
+        directories.addAll(additionalRoutesDirectories());
+        return RouteCompilerMojo.compileRoutes(directories, generatedSourcesDirectory, project, routesOptions(), metrics);
+    }
+
+    private void compileTemplatesAndRoutes(BuildMetrics metrics) throws MojoExecutionException {
+        compileRoutes(metrics);
+        TemplateCompilerMojo.compileTemplates(generatedSourcesDirectory, project, sourceDirectory, templateOptions(),
+                metrics);
+    }
+
+    private RoutesCompilerOptions routesOptions() {
+        return new RoutesCompilerOptions()
+                .setGenerator(routesGenerator)
+                .setGenerateReverseRouter(generateReverseRouter)
+                .setNamespaceReverseRouter(namespaceReverseRouter)
+                .setSplitReverseRouter(splitReverseRouter);
+    }
+
+    private TemplateCompilerOptions templateOptions() {
+        return new TemplateCompilerOptions().setForJava(forJava).setBaseDirectory(project.getBasedir());
+    }
+
+    public void fileCreated(File file) throws Exception {
+        if (isIgnored(file)) {
+            configurationChanged(file);
+            return;
+        }
+        getLog().debug("New file found " + file.getName());
+
+        batcher.changed(file);
+    }
+
+    public void fileDeleted(File file) throws Exception {
+        if (isIgnored(file)) {
+            configurationChanged(file);
+            return;
+        }
+        getLog().debug("File " + file.getName() + " deleted");
 
-        DefaultFileMonitor fm = new DefaultFileMonitor(this);
-        fm.setRecursive(true);
-        fm.addFile(dir);
-        FileObject routes = fsManager.resolveFile(new File(confDirectory, "routes").getAbsolutePath());
-        fm.addFile(routes);
+        batcher.deleted(file);
+    }
+
+    public void fileChanged(File file) throws Exception {
+        if (isIgnored(file)) {
+            configurationChanged(file);
+            return;
+        }
+        getLog().debug("File changed: " + file.getName());
 
-        fm.start();
+        batcher.changed(file);
     }
 
-    private void compileTemplatesAndRoutes() throws MojoExecutionException {
-        RouteCompilerMojo.compileRoutes(confDirectory,
-                generatedSourcesDirectory, project, generateReverseRouter);
-        TemplateCompilerMojo.compileTemplates(
-                generatedSourcesDirectory, project, sourceDirectory, forJava);
+    /** Recompile only what a batch of changes affects. */
+    public void handle(ChangeBatcher.Batch batch) {
+        BuildMetrics metrics = new BuildMetrics("watch cycle");
+        try {
+            handle(batch, metrics);
+        } finally {
+            // latency is measured from the first change seen, so it includes the quiet period
+            metrics.phase("latency", batch.firstEvent);
+            metrics.count(BuildMetrics.WATCH_CYCLES, 1);
+            getLog().info(metrics.summary());
+            sessionMetrics.add(metrics);
+            sessionMetrics.write(getLog(), buildDirectory);
+        }
     }
 
-    public void fileCreated(FileChangeEvent event) throws Exception {
-        getLog().debug("New file found " + event.getFile().getName().getBaseName());
+    private void handle(ChangeBatcher.Batch batch, BuildMetrics metrics) {
+        boolean routesChanged = false;
+        boolean rescan = false;
+        List<File> templates = new ArrayList<File>();
+        List<File> deleted = new ArrayList<File>();
+        List<File> sources = new ArrayList<File>();
+
+        for (File file : batch.changed) {
+            if (file.isDirectory()) {
+                // reported when events were lost, so everything must be checked
+                rescan = true;
+            } else if (isRoutes(file)) {
+                routesChanged = true;
+            } else if (file.getName().endsWith(".scala") || file.getName().endsWith(".java")) {
+                sources.add(file);
+            } else {
+                templates.add(file);
+            }
+        }
+        for (File file : batch.deleted) {
+            if (isRoutes(file)) {
+                routesChanged = true;
+            } else {
+                deleted.add(file);
+            }
+        }
 
-        compileTemplatesAndRoutes();
+        List<ResidentCompiler.Problem> problems = new ArrayList<ResidentCompiler.Problem>();
+        try {
+            if (rescan) {
+                compileTemplatesAndRoutes(metrics);
+                if (compiler != null) {
+                    problems.addAll(compileSources(allSources(), metrics));
+                }
+            } else {
+                if (routesChanged) {
+                    List<File> routes = compileRoutes(metrics);
+                    sources.addAll(routes);
+                    // only the in-process compiler recompiles the templates using the reverse router
+                    if (!routes.isEmpty() && compiler != null) {
+                        sources.addAll(TemplateCompilerMojo.dependentTemplates(generatedSourcesDirectory, project,
+                                sourceDirectory, templateOptions(), new ArrayList<File>(), true, metrics));
+                    }
+                }
+                if (!deleted.isEmpty()) {
+                    // templates calling a deleted template must be recompiled to report the broken calls
+                    sources.addAll(TemplateCompilerMojo.dependentTemplates(generatedSourcesDirectory, project,
+                            sourceDirectory, templateOptions(), deleted, false, metrics));
+                    List<File> removed = TemplateCompilerMojo.removeDeletedTemplates(
+                            generatedSourcesDirectory, project, sourceDirectory, templateOptions(), deleted, metrics);
+                    for (File file : removed) {
+                        getLog().info("Removed " + file);
+                    }
+                }
+                if (!templates.isEmpty()) {
+                    List<File> compiled = TemplateCompilerMojo.compileChangedTemplates(
+                            generatedSourcesDirectory, project, sourceDirectory, templateOptions(), templates, metrics);
+                    for (File file : compiled) {
+                        getLog().info("Compiled " + file);
+                    }
+                    sources.addAll(compiled);
+                }
+                if (compiler != null) {
+                    problems.addAll(compileSources(sources, metrics));
+                }
+            }
+        } catch (TemplateCompilationError e) {
+            getLog().error(String.format("Error in template %s:%s %s", e.source().getPath(), e.line(), e.message()));
+            problems.add(new ResidentCompiler.Problem(true, Option.apply(e.source()), e.line(), e.message()));
+        } catch (MojoExecutionException e) {
+            getLog().error(e.getMessage() + (e.getLongMessage() == null ? "" : " " + e.getLongMessage()));
+            problems.add(problem(e));
+        }
+        compiled(problems);
     }
 
-    public void fileDeleted(FileChangeEvent event) throws Exception {
-        getLog().debug("File " + event.getFile().getName().getBaseName() + " deleted");
+    /** A failure of the routes compiler, located in the routes file when it is a syntax error. */
+    private static ResidentCompiler.Problem problem(MojoExecutionException e) {
+        if (e.getSource() instanceof RoutesCompilationError) {
+            RoutesCompilationError error = (RoutesCompilationError) e.getSource();
+            int line = error.line().isDefined() ? (Integer) error.line().get() : 0;
+            return new ResidentCompiler.Problem(true, Option.apply(error.source()), line, error.message());
+        }
+        return new ResidentCompiler.Problem(true, Option.<File>empty(), 0, e.getMessage());
+    }
 
-        // TODO delete the corresponding class file
+    /** Routes files in the conf and additional routes directories; nothing there is ever a template. */
+    private boolean isRoutes(File file) {
+        return inRoutesDirectory(file) && PlayRoutesCompiler.isRoutesFile(file);
+    }
+
+    /** Whether a file is anywhere under the conf directory or an additional routes directory. */
+    private boolean inRoutesDirectory(File file) {
+        Path path = file.getAbsoluteFile().toPath();
+        if (path.startsWith(confDirectory.getAbsoluteFile().toPath())) {
+            return true;
+        }
+        for (File dir : additionalRoutesDirectories()) {
+            if (path.startsWith(dir.getAbsoluteFile().toPath())) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public void fileChanged(FileChangeEvent event) throws Exception {
-        getLog().debug("File changed: " + event.getFile().getName().getBaseName());
+    /** The additional routes directories, with relative paths resolved from the project basedir. */
+    private List<File> additionalRoutesDirectories() {
+        List<File> directories = new ArrayList<File>();
+        for (File dir : additionalRoutesDirectories) {
+            directories.add(absolutePath(dir));
+        }
+        return directories;
+    }
 
-        compileTemplatesAndRoutes();
+    /**
+     * Convert Files with relative paths to be relative from the project basedir.
+     */
+    private File absolutePath(File file) {
+        if (file.isAbsolute()) {
+            return file;
+        }
+        return new File(project.getBasedir(), file.getPath());
     }
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import org.apache.commons.vfs2.FileChangeEvent;
+import org.apache.commons.vfs2.FileListener;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.apache.commons.vfs2.VFS;
+import org.apache.commons.vfs2.impl.DefaultFileMonitor;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports changes to files under a set of directory trees.
+ *
+ * Native file system events (inotify on Linux) are used when available.
+ * Polling with commons-vfs is used when the file system cannot deliver events
+ * or when polling is requested explicitly, e.g. for network mounts that
+ * accept watch registrations but never report changes.
+ */
+public abstract class SourceMonitor implements Closeable {
+
+    /** Receives a call for every file created, modified or deleted under a monitored directory. */
+    public interface Listener {
+        void fileCreated(File file) throws Exception;
+
+        void fileChanged(File file) throws Exception;
+
+        void fileDeleted(File file) throws Exception;
+    }
+
+    protected final Listener listener;
+    protected final Log log;
+
+    protected SourceMonitor(Listener listener, Log log) {
+        this.listener = listener;
+        this.log = log;
+    }
+
+    /** Start monitoring the given directories and everything below them. */
+    public static SourceMonitor start(List<File> directories, Listener listener, boolean poll, Log log)
+            throws IOException {
+        if (!poll) {
+            try {
+                NativeMonitor monitor = new NativeMonitor(listener, log);
+                for (File dir : directories) {
+                    monitor.registerTree(dir.toPath());
+                }
+                monitor.start();
+                return monitor;
+            } catch (UnsupportedOperationException e) {
+                log.info("File system events are not supported, polling for changes instead");
+            }
+        }
+        PollingMonitor monitor = new PollingMonitor(listener, log);
+        for (File dir : directories) {
+            monitor.add(dir);
+        }
+        monitor.start();
+        return monitor;
+    }
+
+    protected void dispatch(WatchEvent.Kind<?> kind, File file) {
+        try {
+            if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+                listener.fileCreated(file);
+            } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                listener.fileDeleted(file);
+            } else {
+                listener.fileChanged(file);
+            }
+        } catch (Exception e) {
+            log.error("Failed to process change to " + file, e);
+        }
+    }
+
+    /** Event driven monitor backed by a {@link WatchService}. */
+    private static class NativeMonitor extends SourceMonitor implements Runnable {
+        private final WatchService watchService;
+        private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+        private final Thread thread = new Thread(this, "play-source-monitor");
+
+        NativeMonitor(Listener listener, Log log) throws IOException {
+            super(listener, log);
+            this.watchService = FileSystems.getDefault().newWatchService();
+            thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        /** Register a directory and all of its subdirectories. */
+        private void registerTree(Path root) throws IOException {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    WatchKey key = dir.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    synchronized (keys) {
+                        keys.put(key, dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        public void run() {
+            while (true) {
+                WatchKey key;
+                try {
+                    key = watchService.take();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (ClosedWatchServiceException e) {
+                    return;
+                }
+
+                Path dir;
+                synchronized (keys) {
+                    dir = keys.get(key);
+                }
+                if (dir == null) {
+                    key.cancel();
+                    continue;
+                }
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // events were lost; report the directory so the listener rescans it
+                        dispatch(StandardWatchEventKinds.ENTRY_MODIFY, dir.toFile());
+                        continue;
+                    }
+                    Path path = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                        newDirectory(path);
+                    } else if (!Files.isDirectory(path)) {
+                        dispatch(event.kind(), path.toFile());
+                    }
+                }
+
+                if (!key.reset()) {
+                    synchronized (keys) {
+                        keys.remove(key);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Watch a new directory. Files can be written into it before the registration
+         * takes effect, so everything already inside is reported as created.
+         */
+        private void newDirectory(Path dir) {
+            try {
+                registerTree(dir);
+                Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        dispatch(StandardWatchEventKinds.ENTRY_CREATE, file.toFile());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                log.warn("Unable to watch new directory " + dir, e);
+            }
+        }
+
+        public void close() throws IOException {
+            thread.interrupt();
+            watchService.close();
+        }
+    }
+
+    /** Polling monitor for file systems without change notification. */
+    private static class PollingMonitor extends SourceMonitor implements FileListener {
+        private final FileSystemManager fsManager;
+        private final DefaultFileMonitor monitor;
+
+        PollingMonitor(Listener listener, Log log) throws FileSystemException {
+            super(listener, log);
+            this.fsManager = VFS.getManager();
+            this.monitor = new DefaultFileMonitor(this);
+            monitor.setRecursive(true);
+        }
+
+        void add(File dir) throws FileSystemException {
+            monitor.addFile(fsManager.resolveFile(dir.getAbsolutePath()));
+        }
+
+        void start() {
+            monitor.start();
+        }
+
+        public void fileCreated(FileChangeEvent event) throws Exception {
+            dispatch(StandardWatchEventKinds.ENTRY_CREATE, file(event));
+        }
+
+        public void fileDeleted(FileChangeEvent event) throws Exception {
+            dispatch(StandardWatchEventKinds.ENTRY_DELETE, file(event));
+        }
+
+        public void fileChanged(FileChangeEvent event) throws Exception {
+            dispatch(StandardWatchEventKinds.ENTRY_MODIFY, file(event));
+        }
+
+        private static File file(FileChangeEvent event) {
+            return new File(event.getFile().getName().getPath());
+        }
+
+        public void close() {
+            monitor.stop();
+        }
+    }
+}
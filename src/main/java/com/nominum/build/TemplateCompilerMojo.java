@@ -22,19 +22,27 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 
+import play.twirl.api.Html;
 import play.twirl.compiler.TemplateCompilationError;
+import play.twirl.parser.TwirlParser;
 import scala.collection.JavaConversions;
 
 import java.io.File;
+import java.io.IOException;
+import java.security.CodeSource;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Compiles scala.html files to scala source files and compiles routes.
  *
  * @requiresDependencyResolution compile
  */
-@Mojo(name="compile-templates",defaultPhase=LifecyclePhase.GENERATE_SOURCES)
+@Mojo(name="compile-templates",defaultPhase=LifecyclePhase.GENERATE_SOURCES,threadSafe=true)
 public class TemplateCompilerMojo extends AbstractMojo {
 
     @Parameter(defaultValue="${project}",required=true,readonly=true)
@@ -60,17 +68,102 @@ public class TemplateCompilerMojo extends AbstractMojo {
     @Parameter(defaultValue="true", required=false)
     private Boolean forJava;
 
+    /**
+     * Number of templates compiled concurrently.
+     *
+     * Defaults to the number of available processors when zero or unset.
+     */
+    @Parameter(defaultValue="0", required=false)
+    private int parallelism;
+
+    /**
+     * Names of directories under the source directory that are not searched for templates,
+     * such as <code>node_modules</code>.
+     */
+    @Parameter(required=false)
+    private List<String> excludedDirectories = new ArrayList<String>();
+
+    /**
+     * whether templates are compiled by a background daemon that stays warm between builds.
+     *
+     * The daemon is started on first use and templates are compiled in-process if it cannot be reached.
+     */
+    @Parameter(property="play.daemon", defaultValue="false", required=false)
+    private Boolean useDaemon;
+
+    /**
+     * Seconds the compile daemon stays alive without requests.
+     */
+    @Parameter(property="play.daemonIdleTimeout", defaultValue="3600", required=false)
+    private long daemonIdleTimeout;
+
+    /**
+     * Directory of generated sources shared between builds, such as a network file system mounted
+     * on every CI agent. A template compiled by any build sharing it is restored instead of compiled.
+     */
+    @Parameter(property="play.buildCache", required=false)
+    private File buildCache;
+
+    /**
+     * Megabytes the build cache may occupy before the least recently used entries are evicted.
+     */
+    @Parameter(property="play.buildCacheSize", defaultValue="1024", required=false)
+    private long buildCacheSize;
+
+    /**
+     * whether the static text of each template is built once into a constant instead of on every render.
+     *
+     * Adjacent static fragments are merged and the rendered output is unchanged. Meant for production
+     * builds: the watch and run goals compile templates without it.
+     */
+    @Parameter(property="play.hoistStaticMarkup", defaultValue="false", required=false)
+    private Boolean hoistStaticMarkup;
+
+    private static List<File> templateClasspath;
+
     public void execute()
         throws MojoExecutionException {
+        getLog().debug("Template compiler classpath: " + templateClasspath());
+        BuildMetrics metrics = new BuildMetrics("compile-templates");
         try {
-            compileTemplates(
-                    absolutePath(generatedSourcesDirectory),
-                    project,
-                    absolutePath(sourceDirectory),
-                    forJava);
+            if (useDaemon && compileInDaemon(metrics)) {
+                return;
+            }
+            compileTemplates(absolutePath(generatedSourcesDirectory), project, absolutePath(sourceDirectory),
+                    options(), metrics);
         } catch (TemplateCompilationError e) {
             String msg = String.format("Error in template %s:%s %s", e.source().getPath(), e.line(), e.message());
             throw new MojoExecutionException(msg);
+        } finally {
+            metrics.report(getLog(), new File(project.getBuild().getDirectory()));
+        }
+    }
+
+    private TemplateCompilerOptions options() {
+        return new TemplateCompilerOptions()
+                .setForJava(forJava)
+                .setParallelism(parallelism)
+                .setExcludedDirectories(excludedDirectories)
+                .setBuildCache(buildCache == null ? null : absolutePath(buildCache), buildCacheSize)
+                .setHoistStaticMarkup(hoistStaticMarkup)
+                .setBaseDirectory(project.getBasedir());
+    }
+
+    /** @return false when the daemon is unavailable and the templates must be compiled in-process */
+    private boolean compileInDaemon(BuildMetrics metrics) throws MojoExecutionException {
+        DaemonClient daemon = DaemonClient.connect(daemonIdleTimeout, getLog());
+        if (daemon == null) {
+            return false;
+        }
+        File outputDir = absolutePath(generatedSourcesDirectory);
+        prepareOutputDirectory(outputDir, project);
+        try {
+            daemon.compileTemplates(absolutePath(sourceDirectory), outputDir, templateIndexFile(project), options(),
+                    templateClasspath(), metrics);
+            return true;
+        } catch (IOException e) {
+            getLog().warn("Compile daemon failed, compiling in-process instead: " + e);
+            return false;
         }
     }
 
@@ -79,24 +172,118 @@ public class TemplateCompilerMojo extends AbstractMojo {
                                         MavenProject project,
                                         File sourceDir,
                                         boolean forJava) throws MojoExecutionException {
+        compileTemplates(outputDir, project, sourceDir,
+                new TemplateCompilerOptions().setForJava(forJava).setBaseDirectory(project.getBasedir()),
+                new BuildMetrics("compile-templates"));
+    }
+
+    /**
+     * This static method is usable by other Mojos.
+     *
+     * @param metrics receives timings and counts of the work done
+     */
+    public static void compileTemplates(File outputDir,
+                                        MavenProject project,
+                                        File sourceDir,
+                                        TemplateCompilerOptions options,
+                                        BuildMetrics metrics) throws MojoExecutionException {
+        prepareOutputDirectory(outputDir, project);
+
+        templateCompiler(options, metrics).compile(sourceDir, outputDir, templateIndexFile(project));
+    }
+
+    /**
+     * Compile only the given changed templates. Other files are ignored.
+     *
+     * @return the generated sources that were rewritten
+     */
+    public static List<File> compileChangedTemplates(File outputDir,
+                                                     MavenProject project,
+                                                     File sourceDir,
+                                                     TemplateCompilerOptions options,
+                                                     Collection<File> changed,
+                                                     BuildMetrics metrics) throws MojoExecutionException {
+        project.addCompileSourceRoot(outputDir.getAbsolutePath());
+
+        return JavaConversions.seqAsJavaList(templateCompiler(options, metrics)
+                .compileChanged(sourceDir, outputDir, templateIndexFile(project),
+                        JavaConversions.collectionAsScalaIterable(changed).toList()));
+    }
+
+    /**
+     * Delete the generated sources of deleted templates or directories of templates.
+     *
+     * @return the generated sources that were deleted
+     */
+    public static List<File> removeDeletedTemplates(File outputDir,
+                                                    MavenProject project,
+                                                    File sourceDir,
+                                                    TemplateCompilerOptions options,
+                                                    Collection<File> deleted,
+                                                    BuildMetrics metrics) {
+        return JavaConversions.seqAsJavaList(templateCompiler(options, metrics)
+                .removeDeleted(sourceDir, outputDir, templateIndexFile(project),
+                        JavaConversions.collectionAsScalaIterable(deleted).toList()));
+    }
+
+    /**
+     * Find the generated sources of templates calling any of the given templates, or using the
+     * reverse router when routes is set.
+     *
+     * @return the generated sources that need recompiling
+     */
+    public static List<File> dependentTemplates(File outputDir,
+                                                MavenProject project,
+                                                File sourceDir,
+                                                TemplateCompilerOptions options,
+                                                Collection<File> templates,
+                                                boolean routes,
+                                                BuildMetrics metrics) {
+        return JavaConversions.seqAsJavaList(templateCompiler(options, metrics)
+                .dependents(sourceDir, outputDir, templateIndexFile(project),
+                        JavaConversions.collectionAsScalaIterable(templates).toList(), routes));
+    }
+
+    private static void prepareOutputDirectory(File outputDir, MavenProject project) throws MojoExecutionException {
         project.addCompileSourceRoot(outputDir.getAbsolutePath());
 
         if (!outputDir.exists()) {
             boolean created = outputDir.mkdirs();
             if (!created) throw new MojoExecutionException("Failed to create output directory");
         }
+    }
 
-        List<File> classpathFiles = new ArrayList<File>();
-        String classpath = System.getProperty("java.class.path");
-        for (String path : classpath.split(":")) {
-            classpathFiles.add(new File(path));
-        }
+    private static TemplateCompiler templateCompiler(TemplateCompilerOptions options, BuildMetrics metrics) {
+        return new TemplateCompiler(JavaConversions.asScalaBuffer(templateClasspath()).toList(), options, metrics);
+    }
 
-        TemplateCompiler templateCompiler =
-                new TemplateCompiler(JavaConversions.asScalaBuffer(classpathFiles).toList(), forJava);
-        templateCompiler.compile(sourceDir, outputDir);
+    /**
+     * The jars of the Twirl compiler this plugin was built with.
+     *
+     * Twirl only parses templates and generates scala code; it never loads project classes,
+     * so the project's dependencies are not needed. The list is computed once per JVM so
+     * every compile shares the same Twirl classloader and its open jar files.
+     */
+    static synchronized List<File> templateClasspath() {
+        if (templateClasspath == null) {
+            Set<File> jars = new LinkedHashSet<File>();
+            for (Class<?> twirlClass : new Class<?>[] {
+                    TemplateCompilationError.class, TwirlParser.class, Html.class, scala.Option.class}) {
+                CodeSource source = twirlClass.getProtectionDomain().getCodeSource();
+                File jar = source == null ? null : DaemonClient.toFile(source.getLocation());
+                if (jar != null) {
+                    jars.add(jar);
+                }
+            }
+            templateClasspath = Collections.unmodifiableList(new ArrayList<File>(jars));
+        }
+        return templateClasspath;
     }
 
+    /** Record of compiled templates kept between builds so unchanged templates are skipped. */
+    static File templateIndexFile(MavenProject project) {
+        return new File(project.getBuild().getDirectory(), "play-templates.index");
+    }
 
     /** 
      * Convert Files with relative paths to be relative from the project basedir. 
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of the {@link TemplateCompiler}, shared by the goals compiling templates and the {@link CompileDaemon}.
+ *
+ * Setters return the options so they can be chained. Options left unset have the defaults of the
+ * compile-templates goal.
+ */
+public class TemplateCompilerOptions {
+
+    private boolean forJava = true;
+    private int parallelism;
+    private List<String> excludedDirectories = new ArrayList<String>();
+    private File cacheDirectory;
+    private long cacheSize = 1024;
+    private boolean hoistStaticMarkup;
+    private File baseDirectory = new File("").getAbsoluteFile();
+
+    public boolean isForJava() {
+        return forJava;
+    }
+
+    /** Whether templates are compiled with support for Java projects or only Scala. */
+    public TemplateCompilerOptions setForJava(boolean forJava) {
+        this.forJava = forJava;
+        return this;
+    }
+
+    /** Number of templates compiled concurrently, one per processor unless set. */
+    public int getParallelism() {
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Zero or less means one per processor. */
+    public TemplateCompilerOptions setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public List<String> getExcludedDirectories() {
+        return excludedDirectories;
+    }
+
+    /** Names of directories not searched for templates. */
+    public TemplateCompilerOptions setExcludedDirectories(List<String> excludedDirectories) {
+        this.excludedDirectories = new ArrayList<String>(excludedDirectories);
+        return this;
+    }
+
+    /** @return the build cache to restore generated sources from, or null for none */
+    public BuildCache getBuildCache() {
+        return cacheDirectory == null ? null : new DirectoryBuildCache(cacheDirectory, cacheSize * 1024 * 1024);
+    }
+
+    /**
+     * Share generated sources with other builds through a directory.
+     *
+     * @param directory the cache directory, or null for no cache
+     * @param sizeInMegabytes space the cache may occupy before the least recently used entries are evicted
+     */
+    public TemplateCompilerOptions setBuildCache(File directory, long sizeInMegabytes) {
+        this.cacheDirectory = directory == null ? null : directory.getAbsoluteFile();
+        this.cacheSize = sizeInMegabytes;
+        return this;
+    }
+
+    public boolean isHoistStaticMarkup() {
+        return hoistStaticMarkup;
+    }
+
+    /** Whether the static text of templates is moved into constants built once. */
+    public TemplateCompilerOptions setHoistStaticMarkup(boolean hoistStaticMarkup) {
+        this.hoistStaticMarkup = hoistStaticMarkup;
+        return this;
+    }
+
+    public File getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    /**
+     * Directory the generated sources record template paths relative to, normally the project basedir,
+     * so they are the same wherever the project is checked out and whatever directory the compiler runs in.
+     * Defaults to the working directory.
+     */
+    public TemplateCompilerOptions setBaseDirectory(File baseDirectory) {
+        this.baseDirectory = baseDirectory.getAbsoluteFile();
+        return this;
+    }
+
+    /** Send the options to the compile daemon. */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeBoolean(forJava);
+        out.writeInt(parallelism);
+        CompileDaemon.writeStrings(out, excludedDirectories);
+        // an empty path stands for no cache
+        out.writeUTF(cacheDirectory == null ? "" : cacheDirectory.getPath());
+        out.writeLong(cacheSize);
+        out.writeBoolean(hoistStaticMarkup);
+        out.writeUTF(baseDirectory.getPath());
+    }
+
+    /** Options sent by {@link #writeTo}. */
+    static TemplateCompilerOptions readFrom(DataInputStream in) throws IOException {
+        TemplateCompilerOptions options = new TemplateCompilerOptions();
+        options.forJava = in.readBoolean();
+        options.parallelism = in.readInt();
+        options.excludedDirectories = CompileDaemon.readStrings(in);
+        String cacheDirectory = in.readUTF();
+        options.cacheDirectory = cacheDirectory.isEmpty() ? null : new File(cacheDirectory);
+        options.cacheSize = in.readLong();
+        options.hoistStaticMarkup = in.readBoolean();
+        options.baseDirectory = new File(in.readUTF());
+        return options;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build
+
+import java.io.{File, FileInputStream, FileOutputStream}
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, StandardOpenOption}
+import java.security.MessageDigest
+import java.util.Arrays
+import java.util.zip.{Deflater, GZIPOutputStream}
+
+import com.nominum.build.Util.{ScannedFile, parallelMap, relativePath, scan}
+
+/** Copies static assets into the classpath the way sbt-digest and sbt-gzip lay them out for Play.
+  *
+  * For an asset css/main.css the output directory receives
+  *  - css/main.css, a plain copy
+  *  - css/<md5>-main.css, a fingerprinted copy that can be cached forever
+  *  - css/main.css.md5, the fingerprint, which Play's Assets.versioned reads
+  *  - css/main.css.gz and css/<md5>-main.css.gz for compressible types, when smaller than the original
+  *
+  * plus a manifest mapping each logical path to its fingerprinted path.
+  * Copies use FileChannel.transferTo so the bytes never pass through the heap.
+  * Assets unchanged since the build recorded in the index are not touched.
+  *
+  * @param parallelism number of assets processed concurrently
+  * @param compressedExtensions extensions of the assets given gzip variants, without the dot
+  * @param metrics receives the time spent and counts of assets processed and skipped
+  */
+class AssetPipeline(parallelism: Int, compressedExtensions: Set[String], metrics: BuildMetrics) {
+
+  /** Process every asset below assetDirectory into outputDirectory, returning the files written. */
+  def process(assetDirectory: File, outputDirectory: File, indexFile: File, manifestFile: File): Seq[File] = {
+    val index = new SourceIndex(indexFile, settings(outputDirectory))
+
+    val scanStart = metrics.start()
+    val assets = scan(assetDirectory, Seq(""))("")
+    metrics.phase("scan", scanStart)
+    metrics.count(BuildMetrics.FILES_SCANNED, assets.size)
+
+    val start = metrics.start()
+    val outcomes = parallelMap(assets, parallelism) { asset =>
+      val name = relativePath(assetDirectory, asset.file)
+      val hash = index.knownHash(name, asset.stamp).getOrElse(md5(asset.file))
+      if (index.isUpToDate(name, hash, outputDirectory)) {
+        metrics.count(BuildMetrics.ASSETS_SKIPPED, 1)
+        (name, SourceIndex.Entry(asset.stamp, hash, index.get(name).get.outputs), Nil)
+      } else {
+        val written = write(asset, name, hash, outputDirectory)
+        metrics.count(BuildMetrics.ASSETS_PROCESSED, 1)
+        metrics.count(BuildMetrics.BYTES_WRITTEN, written.map(_.length).sum)
+        (name, SourceIndex.Entry(asset.stamp, hash, written.map(relativePath(outputDirectory, _))), written)
+      }
+    }
+    metrics.phase("assets", start)
+
+    val indexStart = metrics.start()
+    val current = outcomes.collect { case Right((name, entry, _)) => name -> entry }.toMap
+    current.foreach { case (name, entry) => index.update(name, entry.stamp, entry.hash, entry.outputs) }
+    if (outcomes.forall(_.isRight)) index.retain(current.keySet)
+    // outputs of deleted assets, of the previous version of changed ones, and from before a settings change
+    index.staleOutputs.map(new File(outputDirectory, _)).foreach { file =>
+      if (file.delete()) metrics.count(BuildMetrics.STALE_OUTPUTS_DELETED, 1)
+    }
+    index.save()
+    writeManifest(manifestFile, current)
+    metrics.phase("index", indexStart)
+
+    outcomes.collectFirst { case Left(t) => throw t }
+    outcomes.flatMap(_.right.get._3)
+  }
+
+  private def write(asset: ScannedFile, name: String, hash: String, outputDirectory: File): Seq[File] = {
+    val copy = new File(outputDirectory, name)
+    val fingerprinted = new File(copy.getParentFile, hash + "-" + copy.getName)
+    val digest = new File(copy.getPath + ".md5")
+    copy.getParentFile.mkdirs()
+
+    transfer(asset.file, copy)
+    transfer(asset.file, fingerprinted)
+    Files.write(digest.toPath, hash.getBytes(StandardCharsets.UTF_8))
+
+    val compressed =
+      if (!compressedExtensions.contains(extension(name))) Nil
+      else {
+        val gzip = new File(copy.getPath + ".gz")
+        compress(asset.file, gzip)
+        // leave incompressible content to be served as is
+        if (gzip.length >= asset.file.length) {
+          gzip.delete()
+          Nil
+        } else {
+          val fingerprintedGzip = new File(fingerprinted.getPath + ".gz")
+          transfer(gzip, fingerprintedGzip)
+          Seq(gzip, fingerprintedGzip)
+        }
+      }
+
+    Seq(copy, fingerprinted, digest) ++ compressed
+  }
+
+  private def transfer(from: File, to: File): Unit = {
+    val in = FileChannel.open(from.toPath, StandardOpenOption.READ)
+    try {
+      val out = FileChannel.open(to.toPath,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+      try {
+        var position = 0L
+        val size = in.size
+        while (position < size) {
+          position += in.transferTo(position, size - position, out)
+        }
+      } finally {
+        out.close()
+      }
+    } finally {
+      in.close()
+    }
+  }
+
+  private def compress(from: File, to: File): Unit = {
+    val in = new FileInputStream(from)
+    try {
+      val out = new GZIPOutputStream(new FileOutputStream(to), 64 * 1024) {
+        `def`.setLevel(Deflater.BEST_COMPRESSION)
+      }
+      try {
+        val buffer = new Array[Byte](64 * 1024)
+        var read = in.read(buffer)
+        while (read >= 0) {
+          out.write(buffer, 0, read)
+          read = in.read(buffer)
+        }
+      } finally {
+        out.close()
+      }
+    } finally {
+      in.close()
+    }
+  }
+
+  /** Hex encoded MD5 digest, the fingerprint sbt-digest and Play's versioned assets use. */
+  private def md5(file: File): String = {
+    val digest = MessageDigest.getInstance("MD5")
+    val in = new FileInputStream(file)
+    try {
+      val buffer = new Array[Byte](64 * 1024)
+      var read = in.read(buffer)
+      while (read >= 0) {
+        digest.update(buffer, 0, read)
+        read = in.read(buffer)
+      }
+    } finally {
+      in.close()
+    }
+    digest.digest.map("%02x".format(_)).mkString
+  }
+
+  /** One "logical=fingerprinted" line per asset, rewritten only when an asset's fingerprint changed. */
+  private def writeManifest(manifestFile: File, assets: Map[String, SourceIndex.Entry]): Unit = {
+    val lines = assets.toSeq.sortBy(_._1).map { case (name, entry) =>
+      val slash = name.lastIndexOf('/') + 1
+      name + "=" + name.substring(0, slash) + entry.hash + "-" + name.substring(slash)
+    }
+    val content = lines.mkString("", "\n", "\n").getBytes(StandardCharsets.UTF_8)
+    if (!manifestFile.isFile || !Arrays.equals(Files.readAllBytes(manifestFile.toPath), content)) {
+      manifestFile.getParentFile.mkdirs()
+      Files.write(manifestFile.toPath, content)
+    }
+  }
+
+  private def extension(name: String) = name.substring(name.lastIndexOf('.') + 1).toLowerCase
+
+  private def settings(outputDirectory: File) =
+    (Seq("digest=md5", "outputDirectory=" + outputDirectory.getAbsolutePath) ++
+      compressedExtensions.toSeq.sorted.map("gzip=" + _)).mkString("\n")
+}
+
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build
+
+import java.io._
+import java.nio.charset.StandardCharsets
+import java.nio.file.{AtomicMoveNotSupportedException, Files, StandardCopyOption}
+
+/** Generated sources shared between builds, such as those of every agent in a CI fleet.
+  *
+  * Entries are keyed by a hash of everything that determines the generated code, so a
+  * source compiled by any build sharing the cache is restored rather than compiled again.
+  * Implementations must tolerate concurrent builds reading and storing the same keys.
+  */
+trait BuildCache {
+  /** The files stored under a key, as paths relative to the generated directory with their content. */
+  def get(key: String): Option[Seq[(String, Array[Byte])]]
+
+  /** Store the files generated for a key. This is best effort: a failure leaves the entry out of the cache. */
+  def put(key: String, outputs: Seq[(String, Array[Byte])]): Unit
+
+  /** Called once a build has stored its entries, so the cache can keep within its bounds. */
+  def trim(): Unit = ()
+}
+
+object BuildCache {
+  /** Key for generated code from the parts that determine it, such as compiler version, settings and source hash. */
+  def key(parts: String*): String = Util.sha1(parts.mkString("\u0000").getBytes(StandardCharsets.UTF_8))
+}
+
+/** Build cache in a directory, which may be on a file system shared between machines.
+  *
+  * Each entry is a single file, written beside its final name and renamed into place, so
+  * a concurrent build sees either the whole entry or none of it. Reading an entry updates
+  * its modification time; when the cache grows beyond its size the entries used least
+  * recently are deleted.
+  *
+  * @param maxSize bytes the entries may occupy
+  */
+class DirectoryBuildCache(directory: File, maxSize: Long) extends BuildCache {
+  import DirectoryBuildCache._
+
+  @volatile private var stored = false
+
+  def get(key: String): Option[Seq[(String, Array[Byte])]] = {
+    val file = entryFile(key)
+    if (!file.isFile) return None
+    try {
+      val in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))
+      try {
+        if (in.readUTF() != Magic) return None
+        val outputs = (1 to in.readInt()).map { _ =>
+          val path = in.readUTF()
+          val content = new Array[Byte](in.readInt())
+          in.readFully(content)
+          (path, content)
+        }
+        // recently used entries are the last to be evicted
+        file.setLastModified(System.currentTimeMillis)
+        Some(outputs)
+      } finally {
+        in.close()
+      }
+    } catch {
+      // an entry evicted while being read, or damaged, is simply a miss
+      case _: IOException => None
+    }
+  }
+
+  def put(key: String, outputs: Seq[(String, Array[Byte])]): Unit = {
+    val file = entryFile(key)
+    // identical keys have identical content, so an entry published by another build is as good
+    if (file.isFile) return
+    try {
+      file.getParentFile.mkdirs()
+      val tmp = File.createTempFile(key, TempSuffix, file.getParentFile)
+      try {
+        val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))
+        try {
+          out.writeUTF(Magic)
+          out.writeInt(outputs.size)
+          outputs.foreach { case (path, content) =>
+            out.writeUTF(path)
+            out.writeInt(content.length)
+            out.write(content)
+          }
+        } finally {
+          out.close()
+        }
+        try {
+          Files.move(tmp.toPath, file.toPath, StandardCopyOption.ATOMIC_MOVE)
+        } catch {
+          case _: AtomicMoveNotSupportedException =>
+            Files.move(tmp.toPath, file.toPath, StandardCopyOption.REPLACE_EXISTING)
+        }
+        stored = true
+      } finally {
+        tmp.delete()
+      }
+    } catch {
+      case _: IOException =>
+    }
+  }
+
+  /** Evict the least recently used entries beyond the size bound, and temporary files left by interrupted builds. */
+  override def trim(): Unit = {
+    if (!stored) return
+    stored = false
+    val files = Option(directory.listFiles).toSeq.flatten.filter(_.isDirectory).flatMap(d => Option(d.listFiles).toSeq.flatten)
+    val abandoned = System.currentTimeMillis - AbandonedAfter
+    files.filter(f => f.getName.endsWith(TempSuffix) && f.lastModified < abandoned).foreach(_.delete())
+
+    val entries = files.filter(_.getName.endsWith(EntrySuffix)).map(f => (f, f.lastModified, f.length)).sortBy(-_._2)
+    var total = 0L
+    entries.foreach { case (file, _, size) =>
+      total += size
+      if (total > maxSize) file.delete()
+    }
+  }
+
+  private def entryFile(key: String) = new File(new File(directory, key.take(2)), key + EntrySuffix)
+}
+
+object DirectoryBuildCache {
+  private val Magic = "play-build-cache-v1"
+  private val EntrySuffix = ".entry"
+  private val TempSuffix = ".tmp"
+  private val AbandonedAfter = 60 * 60 * 1000L
+}
@@ -16,30 +16,176 @@
 package com.nominum.build
 
 import java.io.File
+import java.nio.file.Files
 import play.routes.compiler._
-import com.nominum.build.Util.filesInDirStartingWith
+import com.nominum.build.Util.{ScannedFile, parallelMap, relativePath, writeIfChanged}
 import org.apache.maven.plugin.MojoExecutionException
 
-/** The routes compiler generates static routes and optionally reverse routes.
+import scala.collection.JavaConversions._
+import scala.io.Codec
+
+/** The routes compiler generates routers and optionally reverse routes for every routes file.
+  *
+  * A file named `routes` compiles into the `router` package and a file such as `admin.routes`
+  * into the `admin` package, as Play does for sub-projects. Each file is checked against the
+  * index on its own, so editing one routes file does not regenerate the others. A generated
+  * file is only rewritten when its content changes, and only those files are returned, so
+  * the scala compiler is not handed sources identical to the ones it last saw.
   *
-  * It does not currently support injected routes as found in Play 2.4.
+  * @param options settings, such as the routes generator and parallelism; those changing the generated code are
+  *                recorded in the index, so a change regenerates every routes file
+  * @param metrics receives the time spent compiling and how many routes files were regenerated
   */
-class PlayRoutesCompiler {
-  def compile(confDirectory: File, generatedDir: File, additionalImports: Seq[String], generateReverseRouter: Boolean) = {
-
-    var routesFile = new File(confDirectory, "routes")
-    if (!routesFile.exists) {
-       for (file <- confDirectory.listFiles.filter(_.getName.endsWith("routes"))) {
-         if (file.exists) routesFile = file
-       }
+class PlayRoutesCompiler(options: RoutesCompilerOptions, metrics: BuildMetrics) {
+  def this() = this(new RoutesCompilerOptions, new BuildMetrics("compile-routes"))
+
+  private val parallelism = options.getParallelism
+
+  /** Generated sources shared with other builds, restored instead of compiling a routes file again. */
+  private val cache = Option(options.getBuildCache)
+
+  /** "static" for routers backed by objects, "injected" for routers built by dependency injection, either with
+    * "-trie" for routers that look requests up in a prefix tree of their routes, see [[TrieRoutesGenerator]].
+    * Split reverse routers are described by [[SplitReverseRoutesGenerator]].
+    */
+  private val routesGenerator: RoutesGenerator = {
+    val selected = options.getGenerator match {
+      case "static" => StaticRoutesGenerator
+      case "injected" => InjectedRoutesGenerator
+      case "static-trie" => new TrieRoutesGenerator(StaticRoutesGenerator)
+      case "injected-trie" => new TrieRoutesGenerator(InjectedRoutesGenerator)
+      case other => throw new MojoExecutionException("Unknown routes generator \"" + other +
+        "\"; use \"static\", \"injected\", \"static-trie\" or \"injected-trie\"")
+    }
+    if (options.isSplitReverseRouter) new SplitReverseRoutesGenerator(selected) else selected
+  }
+
+  def compile(confDirectory: File, generatedDir: File, additionalImports: Seq[String], generateReverseRouter: Boolean): Seq[File] =
+    compile(Seq(confDirectory), generatedDir, additionalImports, generateReverseRouter, namespaceReverseRouter = false, None)
+
+  /** Compile every routes file in the given directories that changed since the build recorded in the index file. */
+  def compile(routesDirectories: Seq[File], generatedDir: File, indexFile: File): Seq[File] =
+    compile(routesDirectories, generatedDir, options.getAdditionalImports, options.isGenerateReverseRouter,
+      options.isNamespaceReverseRouter, Some(indexFile))
+
+  private def compile(routesDirectories: Seq[File], generatedDir: File, additionalImports: Seq[String], generateReverseRouter: Boolean,
+                      namespaceReverseRouter: Boolean, indexFile: Option[File]): Seq[File] = {
+    val routesFiles = PlayRoutesCompiler.routesFiles(routesDirectories)
+
+    // each file becomes a package; two files with the same name would overwrite each other's router
+    routesFiles.groupBy(_.getName).values.find(_.size > 1).foreach { clash =>
+      throw new MojoExecutionException("Routes files " + clash.mkString(" and ") + " would generate the same router")
+    }
+
+    val settings = Seq("generator=" + routesGenerator.id, "generateReverseRouter=" + generateReverseRouter,
+      "namespaceReverseRouter=" + namespaceReverseRouter, "generatedDir=" + generatedDir.getAbsolutePath) ++
+      additionalImports.map("import=" + _)
+    val index = indexFile.map(new SourceIndex(_, settings.mkString("\n")))
+
+    val start = metrics.start()
+    val outcomes = parallelMap(routesFiles, parallelism) { routesFile =>
+      val name = routesFile.getAbsolutePath
+      val stamp = ScannedFile(routesFile).stamp
+      val hash = index.flatMap(_.knownHash(name, stamp)).getOrElse(Util.sha1(Files.readAllBytes(routesFile.toPath)))
+
+      // leave the generated files untouched so nothing downstream is recompiled
+      if (index.exists(_.isUpToDate(name, hash, generatedDir))) {
+        metrics.count(BuildMetrics.ROUTES_SKIPPED, 1)
+        (name, SourceIndex.Entry(stamp, hash, index.get.get(name).get.outputs), Nil)
+      } else {
+        metrics.count(BuildMetrics.ROUTES_COMPILED, 1)
+        val generated = cached(routesFile, hash, generatedDir, additionalImports, generateReverseRouter, namespaceReverseRouter)
+        // files whose content is unchanged keep their timestamps
+        val written = generated.filter { case (file, content) => writeIfChanged(file, content) }.map(_._1)
+        metrics.count(BuildMetrics.FILES_CHANGED, written.size)
+        metrics.count(BuildMetrics.BYTES_WRITTEN, written.map(_.length).sum)
+        (name, SourceIndex.Entry(stamp, hash, generated.map(g => relativePath(generatedDir, g._1))), written)
+      }
+    }
+    metrics.phase("routes", start)
+
+    index.foreach { i =>
+      // keep what did compile even when another routes file failed
+      outcomes.foreach {
+        case Right((name, entry, _)) => i.update(name, entry.stamp, entry.hash, entry.outputs)
+        case _ =>
+      }
+      if (outcomes.forall(_.isRight)) i.retain(outcomes.map(_.right.get._1).toSet)
+      // outputs of deleted routes files, or from before a settings change, would still be compiled
+      i.staleOutputs.map(new File(generatedDir, _)).foreach { file =>
+        if (file.delete()) metrics.count(BuildMetrics.STALE_OUTPUTS_DELETED, 1)
+      }
+      i.save()
     }
-    val routerTask = new RoutesCompiler.RoutesCompilerTask(routesFile, additionalImports, true, generateReverseRouter, false)
+    cache.foreach(_.trim())
+    outcomes.collectFirst { case Left(t) => throw t }
+
+    val outputs = outcomes.flatMap(_.right.get._2.outputs)
+    outputs.diff(outputs.distinct).headOption.foreach { output =>
+      throw new MojoExecutionException("Several routes files generate " + output +
+        "; set namespaceReverseRouter when routes files share controller packages")
+    }
+    outcomes.flatMap(_.right.get._3).map(_.getAbsoluteFile)
+  }
+
+  /** Generate a routes file's sources, or restore them from the cache when any build sharing the cache generated them. */
+  private def cached(routesFile: File, hash: String, generatedDir: File, additionalImports: Seq[String],
+                     generateReverseRouter: Boolean, namespaceReverseRouter: Boolean): Seq[(File, Array[Byte])] = cache match {
+    case None => generate(routesFile, generatedDir, additionalImports, generateReverseRouter, namespaceReverseRouter)
+    case Some(c) =>
+      val charset = Codec.fallbackSystemCodec.charSet
+      val key = BuildCache.key(Seq("routes", PlayRoutesCompiler.compilerVersion, routesGenerator.id,
+        "generateReverseRouter=" + generateReverseRouter, "namespaceReverseRouter=" + namespaceReverseRouter,
+        charset.name, routesFile.getName, hash) ++ additionalImports: _*)
+      // the generated sources record the absolute path of the routes file, which differs between machines
+      val sourcePath = routesFile.getAbsolutePath
+      c.get(key) match {
+        case Some(outputs) =>
+          metrics.count(BuildMetrics.CACHE_HITS, 1)
+          outputs.map { case (output, content) =>
+            (new File(generatedDir, output), new String(content, charset).replace(PlayRoutesCompiler.SourcePath, sourcePath).getBytes(charset))
+          }
+        case None =>
+          metrics.count(BuildMetrics.CACHE_MISSES, 1)
+          val generated = generate(routesFile, generatedDir, additionalImports, generateReverseRouter, namespaceReverseRouter)
+          c.put(key, generated.map { case (file, content) =>
+            relativePath(generatedDir, file) -> new String(content, charset).replace(sourcePath, PlayRoutesCompiler.SourcePath).getBytes(charset)
+          })
+          generated
+      }
+  }
 
-    RoutesCompiler.compile(routerTask, StaticRoutesGenerator, generatedDir).fold(
+  /** Parse a routes file and generate its sources in memory, as RoutesCompiler.compile does before writing them. */
+  private def generate(routesFile: File, generatedDir: File, additionalImports: Seq[String], generateReverseRouter: Boolean,
+                       namespaceReverseRouter: Boolean): Seq[(File, Array[Byte])] = {
+    val task = new RoutesCompiler.RoutesCompilerTask(routesFile, additionalImports, true, generateReverseRouter,
+      namespaceReverseRouter)
+    val namespace = Some(routesFile.getName).filter(_.endsWith(".routes")).map(_.stripSuffix(".routes")).orElse(Some("router"))
+    RoutesFileParser.parse(routesFile.getAbsoluteFile).fold(
       (errors: Seq[RoutesCompilationError]) =>
-        throw new MojoExecutionException(errors.head, "Error in routes file on line " + errors.head.line, errors.head.message),
-      (sf: Seq[File]) => {}
+        throw new MojoExecutionException(errors.head,
+          "Error in routes file " + routesFile + " on line " + errors.head.line.getOrElse("?"), errors.head.message),
+      (rules: List[Rule]) =>
+        routesGenerator.generate(task, namespace, rules).map { case (name, content) =>
+          (new File(generatedDir, name), content.getBytes(Codec.fallbackSystemCodec.charSet))
+        }
     )
-    (filesInDirStartingWith(generatedDir, "routes_*") ++ Array(new File(generatedDir, "routes.java"))).map(_.getAbsoluteFile)
   }
 }
+
+object PlayRoutesCompiler {
+  /** Stands for the routes file path in cached sources. */
+  private val SourcePath = "${routes.source}"
+
+  /** Name of the routes compiler jar, whose version decides what is generated. */
+  private lazy val compilerVersion = Option(classOf[RoutesCompiler.RoutesCompilerTask].getProtectionDomain.getCodeSource)
+    .map(_.getLocation.getPath.split('/').last).getOrElse("")
+
+  /** Files named `routes` or ending in `.routes` directly inside the given directories. Missing directories are skipped. */
+  def routesFiles(directories: Seq[File]): Seq[File] =
+    directories.filter(_.isDirectory).flatMap { dir =>
+      dir.listFiles.filter(f => f.isFile && isRoutesFile(f)).sortBy(_.getName)
+    }
+
+  def isRoutesFile(file: File): Boolean = file.getName == "routes" || file.getName.endsWith(".routes")
+}
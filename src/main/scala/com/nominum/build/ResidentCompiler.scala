@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build
+
+import java.io.File
+import java.util.Locale
+import javax.tools.{Diagnostic, DiagnosticCollector, JavaFileObject, ToolProvider}
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+import scala.tools.nsc.reporters.StoreReporter
+import scala.tools.nsc.{Global, Settings}
+
+/** Scala and Java compilers kept in memory between the compile cycles of the watch goal.
+  *
+  * The scala compiler instance is reused for as long as its runs succeed, as the fsc
+  * compile server does, so a cycle pays neither JVM startup nor compiler warmup.
+  * Only the sources passed to compile are recompiled, together with the sources using a class
+  * whose signature they changed; everything else is read from the classes already in the
+  * output directory.
+  */
+class ResidentCompiler(classpath: Seq[File], outputDirectory: File, encoding: String) {
+  import ResidentCompiler._
+
+  private val reporter = new StoreReporter
+  private var global: Option[Global] = None
+
+  /** Signature of each top-level class compiled, by full name; a class and its companion share one. */
+  private val signatures = mutable.Map[String, String]()
+  /** Top-level classes each source defines. */
+  private val defined = mutable.Map[File, Set[String]]()
+  /** Top-level classes each scala source uses. */
+  private val uses = mutable.Map[File, Set[String]]()
+  /** Every java source compiled. Scalac only reads their signatures, so what their code uses is unknown. */
+  private val javaSources = mutable.LinkedHashSet[File]()
+
+  /** Compile scala and java sources, returning the warnings and errors reported.
+    *
+    * When a compiled class's signature changes, the scala sources using it are compiled next, and
+    * so on until no more signatures change. Java sources are compiled again whenever a signature
+    * changes, since their uses are unknown.
+    */
+  def compile(sources: Seq[File]): Seq[Problem] = synchronized {
+    val compiled = mutable.Set[File]()
+    var batch = sources.map(_.getAbsoluteFile).distinct
+    var problems = Seq.empty[Problem]
+    while (batch.nonEmpty) {
+      compiled ++= batch
+      val (scalaProblems, changed) = compileScala(batch)
+      problems ++= scalaProblems
+      if (scalaProblems.exists(_.isError)) return problems
+      problems ++= compileJava(batch.filter(_.getName.endsWith(".java")))
+      if (problems.exists(_.isError)) return problems
+      batch = dependents(changed).filterNot(compiled.contains)
+    }
+    problems
+  }
+
+  /** The sources to compile again after the signatures of the given classes changed. */
+  private def dependents(changed: Set[String]): Seq[File] = {
+    if (changed.isEmpty) return Nil
+    val scalaSources = uses.collect { case (source, used) if used.exists(changed.contains) => source }
+    (scalaSources.toSeq.sortBy(_.getPath) ++ javaSources).filter(_.isFile)
+  }
+
+  /** Compile with scalac, returning the problems and the classes whose signature changed. */
+  private def compileScala(sources: Seq[File]): (Seq[Problem], Set[String]) = {
+    // java sources are given to scalac too so scala code can refer to their new signatures,
+    // and so the signatures of java classes are known
+    val compiler = global.getOrElse(newGlobal())
+    reporter.reset()
+    val run = new compiler.Run
+    run.compile(sources.map(_.getPath).toList)
+
+    // a failed run can leave the symbol table inconsistent; start afresh next time
+    global = if (reporter.hasErrors) None else Some(compiler)
+
+    val problems = reporter.infos.toSeq.sortBy(_.pos.pointOrElse(0)).map { info =>
+      val file = if (info.pos.isDefined) Option(info.pos.source.file.file) else None
+      val line = if (info.pos.isDefined) info.pos.line else 0
+      Problem(info.severity == reporter.ERROR, file, line, info.msg)
+    }
+    (problems, if (reporter.hasErrors) Set.empty else record(compiler)(run))
+  }
+
+  /** Record what each source of a run defines and uses, returning the classes whose signature changed or are gone. */
+  private def record(compiler: Global)(run: compiler.Run): Set[String] = {
+    import compiler._
+
+    def signature(sym: Symbol): String = {
+      val cls = if (sym.isModule) sym.moduleClass else sym
+      val members = cls.info.decls.toList.filterNot(_.isPrivate).map { member =>
+        if (member.isClass || member.isModule) signature(member) else member.defString
+      }
+      sym.defString + cls.info.parents.mkString(" extends ", " with ", "") + members.sorted.mkString(" {", "; ", "}")
+    }
+
+    val changed = mutable.Set[String]()
+    val runSignatures = mutable.Map[String, List[String]]()
+    // signatures as other sources see them, before erasure
+    exitingPickler {
+      run.units.foreach { unit =>
+        val file = unit.source.file.file.getAbsoluteFile
+        val topLevel = unit.body.collect { case d: ImplDef if d.symbol.owner.hasPackageFlag => d.symbol }
+        topLevel.foreach(sym => runSignatures(sym.fullName) = signature(sym) :: runSignatures.getOrElse(sym.fullName, Nil))
+        val names = topLevel.map(_.fullName).toSet
+        changed ++= defined.getOrElse(file, Set.empty) -- names
+        defined(file) = names
+        if (unit.isJava) {
+          javaSources += file
+        } else {
+          uses(file) = unit.depends.toSet[Symbol].filter(sym => sym != NoSymbol && !sym.hasPackageFlag)
+            .map(_.enclosingTopLevelClass.fullName) -- names
+        }
+      }
+    }
+    runSignatures.foreach { case (name, parts) =>
+      if (signatures.put(name, parts.sorted.mkString("\n")).exists(_ != signatures(name))) changed += name
+    }
+    changed.toSet
+  }
+
+  private def newGlobal(): Global = {
+    val settings = new Settings(msg => throw new IllegalArgumentException(msg))
+    settings.classpath.value = (outputDirectory +: classpath).map(_.getAbsolutePath).distinct.mkString(File.pathSeparator)
+    settings.outputDirs.setSingleOutput(outputDirectory.getAbsolutePath)
+    settings.encoding.value = encoding
+    new Global(settings, reporter)
+  }
+
+  private def compileJava(sources: Seq[File]): Seq[Problem] = {
+    if (sources.isEmpty) return Nil
+
+    val javac = ToolProvider.getSystemJavaCompiler
+    if (javac == null) {
+      return Seq(Problem(isError = true, None, 0, "No java compiler available; run maven with a JDK to compile java sources"))
+    }
+
+    val diagnostics = new DiagnosticCollector[JavaFileObject]
+    val fileManager = javac.getStandardFileManager(diagnostics, Locale.getDefault, java.nio.charset.Charset.forName(encoding))
+    try {
+      val options = Seq("-d", outputDirectory.getAbsolutePath,
+        "-classpath", (outputDirectory +: classpath).map(_.getAbsolutePath).mkString(File.pathSeparator),
+        "-encoding", encoding)
+      javac.getTask(null, fileManager, diagnostics, options, null, fileManager.getJavaFileObjectsFromFiles(sources)).call()
+    } finally {
+      fileManager.close()
+    }
+
+    diagnostics.getDiagnostics.toSeq.filter(_.getKind != Diagnostic.Kind.NOTE).map { d =>
+      val file = Option(d.getSource).map(s => new File(s.toUri))
+      Problem(d.getKind == Diagnostic.Kind.ERROR, file, d.getLineNumber.toInt, d.getMessage(Locale.getDefault))
+    }
+  }
+}
+
+object ResidentCompiler {
+  /** Every scala and java source below the given directories. Missing directories are skipped. */
+  def sourcesIn(roots: Seq[File]): Seq[File] =
+    roots.filter(_.isDirectory).flatMap(root => Util.scan(root, Seq(".scala", ".java")).values.flatten.map(_.file))
+
+  case class Problem(isError: Boolean, file: Option[File], line: Int, message: String) {
+    override def toString: String = file.map(_.getPath + ":" + line + ": ").getOrElse("") + message
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build
+
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, StandardCopyOption}
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+
+/** Persistent record of the sources compiled into a generated sources directory.
+  *
+  * Each entry maps a source, such as a template or routes file, to the hash of its
+  * content and the files generated from it (relative to the generated directory).
+  * The source's size and modification time are kept alongside the hash so unchanged
+  * files need not be read again to be recognised.
+  * An entry may also list the other sources it depends on and a hash of its signature,
+  * so the sources affected by a change can be found without reading them.
+  * The index is stamped with the compiler settings it was built with; when those
+  * change the previous entries are discarded so every source is compiled again.
+  */
+class SourceIndex(indexFile: File, settings: String) {
+  import SourceIndex._
+
+  private val entries = mutable.Map[String, Entry]()
+
+  /** Outputs recorded by the previous build, even one with different settings. */
+  private val previousOutputs = mutable.Set[String]()
+
+  private var loaded = false
+
+  load()
+
+  /** True when an index was read, so its outputs account for everything generated by a previous build. */
+  def isLoaded: Boolean = loaded
+
+  /** True when the source was last compiled from identical content and all of its outputs still exist. */
+  def isUpToDate(source: String, hash: String, generatedDir: File): Boolean =
+    entries.get(source).exists(e => e.hash == hash && e.outputs.forall(new File(generatedDir, _).isFile))
+
+  /** The recorded hash of a source whose size and modification time have not changed. */
+  def knownHash(source: String, stamp: String): Option[String] =
+    entries.get(source).filter(_.stamp == stamp).map(_.hash)
+
+  def get(source: String): Option[Entry] = entries.get(source)
+
+  def sources: collection.Set[String] = entries.keySet
+
+  def remove(source: String): Unit = entries -= source
+
+  def update(source: String, stamp: String, hash: String, outputs: Seq[String]): Unit =
+    entries(source) = Entry(stamp, hash, outputs)
+
+  def update(source: String, entry: Entry): Unit = entries(source) = entry
+
+  /** Sources that list any of the given sources among their dependencies. */
+  def dependents(sources: collection.Set[String]): Seq[String] =
+    entries.toSeq.sortBy(_._1).collect { case (source, e) if e.dependencies.exists(sources.contains) => source }
+
+  /** Drop entries for sources that no longer exist. */
+  def retain(sources: collection.Set[String]): Unit =
+    entries.retain((source, _) => sources.contains(source))
+
+  /** Outputs of the previous build that no current entry produces, such as those of deleted sources
+    * or of sources compiled with settings that put their output elsewhere.
+    */
+  def staleOutputs: collection.Set[String] = previousOutputs -- entries.values.flatMap(_.outputs)
+
+  def save(): Unit = {
+    indexFile.getParentFile.mkdirs()
+    val lines = (Header + settingsHash) +: entries.toSeq.sortBy(_._1).map {
+      case (source, Entry(stamp, hash, outputs, dependencies, signature)) =>
+        Seq(source, stamp, hash, outputs.mkString(OutputSeparator), dependencies.mkString(OutputSeparator), signature).mkString("\t")
+    }
+    // write beside the index and move it into place so an interrupted build never leaves half an index
+    val tmp = new File(indexFile.getPath + ".tmp")
+    Files.write(tmp.toPath, lines, StandardCharsets.UTF_8)
+    Files.move(tmp.toPath, indexFile.toPath, StandardCopyOption.REPLACE_EXISTING)
+  }
+
+  private def settingsHash = Util.sha1(settings.getBytes(StandardCharsets.UTF_8))
+
+  private def load(): Unit = {
+    if (!indexFile.isFile) return
+    val lines = Files.readAllLines(indexFile.toPath, StandardCharsets.UTF_8)
+    if (lines.isEmpty || !lines.get(0).startsWith(Header)) return
+    val sameSettings = lines.get(0) == Header + settingsHash
+    loaded = true
+    lines.drop(1).map(_.split("\t", -1)).foreach {
+      case Array(source, stamp, hash, outputs, dependencies, signature) =>
+        val entry = Entry(stamp, hash, split(outputs), split(dependencies), signature)
+        previousOutputs ++= entry.outputs
+        if (sameSettings) entries(source) = entry
+      case _ => // ignore damaged lines, the source will simply be compiled again
+    }
+  }
+}
+
+object SourceIndex {
+  private val Header = "play-index-v3 "
+  private val OutputSeparator = ","
+
+  private def split(list: String) = list.split(OutputSeparator).filter(_.nonEmpty).toSeq
+
+  case class Entry(stamp: String, hash: String, outputs: Seq[String], dependencies: Seq[String] = Nil, signature: String = "")
+}
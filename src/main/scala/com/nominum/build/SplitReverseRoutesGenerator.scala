@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build
+
+import org.apache.maven.plugin.MojoExecutionException
+import play.routes.compiler._
+
+/** Generates the reverse routers of each controller into a file of their own.
+  *
+  * Play writes the reverse routers, and the JavaScript reverse routers, of every controller in a
+  * package into one file per package, so editing any route changes that file and the scala compiler
+  * recompiles every reverse router in it. This generator keeps everything the given generator writes
+  * but moves each controller's reverse router class into a file named after the class, beside the
+  * file it came from. Since generated files are only rewritten when their content changes, a routes
+  * edit then leaves the reverse routers of unaffected controllers untouched.
+  *
+  * The classes keep the line comments recording their routes, so a controller whose routes moved
+  * to other lines of the routes file is rewritten too.
+  */
+class SplitReverseRoutesGenerator(base: RoutesGenerator) extends RoutesGenerator {
+  import SplitReverseRoutesGenerator._
+
+  def id: String = base.id + "-split"
+
+  def generate(task: RoutesCompiler.RoutesCompilerTask, namespace: Option[String], rules: List[Rule]): Seq[(String, String)] =
+    base.generate(task, namespace, rules).flatMap {
+      case (name, code) if isReverseRoutes(name.replaceAll("/+", "/")) => split(name.replaceAll("/+", "/"), code, task.file)
+      case other => Seq(other)
+    }
+}
+
+object SplitReverseRoutesGenerator {
+  private val ReverseRoutesFiles = Set("ReverseRoutes.scala", "JavaScriptReverseRoutes.scala")
+
+  private val Package = """(?s)(.*?\n)(?:// @LINE:\d+\n)*package ([\w.]+) \{\n(.*)\n\}\s*""".r
+  // a class is preceded by a line comment for each of its routes, which stay with it
+  private val Class = """(?m)^(?:  // @LINE:\d+\n)+  class (\w+)\(""".r
+
+  private def isReverseRoutes(name: String) = ReverseRoutesFiles.contains(name.split('/').last)
+
+  /** One file per reverse router class, each with the imports and package prelude of the original file. */
+  private def split(name: String, code: String, source: java.io.File): Seq[(String, String)] = code match {
+    case Package(header, pkg, body) =>
+      val classes = Class.findAllMatchIn(body).map(m => (m.start, m.group(1))).toSeq
+      if (classes.isEmpty) unrecognized(source)
+      val prelude = body.substring(0, classes.head._1)
+      val directory = name.substring(0, name.lastIndexOf('/') + 1)
+      classes.zip(classes.tail.map(_._1) :+ body.length).map { case ((from, className), to) =>
+        val content = header + "package " + pkg + " {\n" + prelude + body.substring(from, to).replaceAll("\\s+$", "") + "\n\n}\n"
+        (directory + className + ".scala", content)
+      }
+    case _ => unrecognized(source)
+  }
+
+  private def unrecognized(source: java.io.File) =
+    throw new MojoExecutionException("The reverse routes generated for " + source +
+      " were not recognized; set splitReverseRouter to false")
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build
+
+import scala.collection.mutable
+
+/** Moves the static text of a generated template into constants built once.
+  *
+  * Twirl renders static text through a `format.raw("...")` call evaluated on every render,
+  * wrapping the text in a new Html, Txt, Xml or JavaScript value each time, and the text
+  * between two dynamic parts is often split over several adjacent calls. Each run of adjacent
+  * calls is replaced by a reference to a single value holding their concatenated text, defined
+  * in an object beside the template class. These values are immutable and formats concatenate
+  * the values they fill, so the rendered output is unchanged.
+  *
+  * Every line of the generated code keeps its length, since Twirl maps compile errors back to
+  * the template by offset and line.
+  */
+object StaticMarkup {
+  /** Name of the object holding the constants, next to the template class. */
+  private val Constants = "_static_"
+
+  // Twirl writes static text as triple-quoted strings, with any triple quote in the text concatenated in between
+  private val Part = """(?:"{3}(?s:.*?)"{3,5}(?!")|"\\"\\"\\"")"""
+  private val Raw = ("""format\.raw/\*\d+\.\d+\*/\((""" + Part + "(?: \\+ " + Part + """)*)\)""").r
+  private val Run = (Raw.regex + "(?:," + Raw.regex + ")*").r
+
+  private val Format = """extends BaseScalaTemplate\[.*\]\(([\w.]+)\) with """.r
+  private val ClassEnd = "\n  def ref: this.type = this\n\n}"
+
+  /** The generated code with its static text hoisted, or unchanged when it is not laid out as Twirl writes it. */
+  def hoist(code: String): String = {
+    val format = Format.findFirstMatchIn(code).map(_.group(1))
+    val classEnd = code.indexOf(ClassEnd)
+    if (format.isEmpty || classEnd < 0) return code
+
+    val constants = mutable.ArrayBuffer[String]()
+    val out = new StringBuilder
+    var copied = 0
+    Run.findAllMatchIn(code.substring(0, classEnd)).foreach { run =>
+      val reference = Constants + ".s" + constants.size
+      val lines = run.matched.split("\n", -1)
+      // the reference goes on the first line, and every line is padded to its former length
+      if (reference.length <= lines.head.length) {
+        out.append(code.substring(copied, run.start)).append(reference.padTo(lines.head.length, ' '))
+        lines.tail.foreach(line => out.append('\n').append(" " * line.length))
+        copied = run.end
+        constants += Raw.findAllMatchIn(run.matched).map(_.group(1)).mkString(" + ")
+      }
+    }
+    if (constants.isEmpty) return code
+
+    val end = classEnd + ClassEnd.length
+    out.append(code.substring(copied, end))
+    out.append("\n\nobject ").append(Constants).append(" {\n")
+    constants.zipWithIndex.foreach { case (text, i) =>
+      out.append("  val s").append(i).append(" = ").append(format.get).append(".raw(").append(text).append(")\n")
+    }
+    out.append("}").append(code.substring(end))
+    out.toString
+  }
+}
@@ -17,14 +17,38 @@ package com.nominum.build
  */
 
 import java.io.File
+import java.nio.file.Files
 
-import com.nominum.build.Util.filesInDirEndingWith
+import com.nominum.build.TemplateCompiler._
+import com.nominum.build.Util.{ScannedFile, parallelMap, relativePath, scan, writeIfChanged}
 import play.TemplateImports
 import scala.collection.JavaConversions._
 
-import scala.io.Codec
+/** Compiles Twirl templates into scala sources.
+  *
+  * While compiling a template the templates it calls and whether it uses the reverse router
+  * are recorded in the index, together with a hash of its signature. Templates calling a
+  * template whose signature changed can then be recompiled without recompiling the others:
+  * editing the body of a layout used everywhere affects only the layout itself.
+  *
+  * @param classpath the jars of the Twirl compiler, found on this class's classloader when empty
+  * @param options settings, such as the parallelism and build cache; those changing the generated code are recorded
+  *                in the index, so a change recompiles every template
+  * @param metrics receives the time spent in each phase and counts of templates compiled and skipped
+  */
+class TemplateCompiler(classpath: Seq[File], options: TemplateCompilerOptions, metrics: BuildMetrics) {
+  def this(classpath: Seq[File], forJava: Boolean) =
+    this(classpath, new TemplateCompilerOptions().setForJava(forJava), new BuildMetrics("compile-templates"))
+
+  private val forJava = options.isForJava
+  private val parallelism = options.getParallelism
+  private val excludedDirectories = options.getExcludedDirectories.toSet
+  private val hoistStaticMarkup = options.isHoistStaticMarkup
+  private val baseDirectory = options.getBaseDirectory
+
+  /** Generated sources shared with other builds, restored instead of compiling a template again. */
+  private val cache = Option(options.getBuildCache)
 
-class TemplateCompiler(classpath: Seq[File], forJava: Boolean) {
   val templatesImport = if (forJava)
     TemplateImports.defaultJavaTemplateImports
   else
@@ -38,53 +62,275 @@ class TemplateCompiler(classpath: Seq[File], forJava: Boolean) {
   )
   play.twirl.api.Formats
 
-  def compile(sourceDirectory: File, generatedDir: File) = {
-    val classLoader = new java.net.URLClassLoader(classpath.map(_.toURI.toURL).toArray, this.getClass.getClassLoader)
-    val compiler = classLoader.loadClass("play.twirl.compiler.TwirlCompiler")
-    val generatedSource = classLoader.loadClass("play.twirl.compiler.GeneratedSource")
-
-    // remove scala source files that no longer correspond with an html template file
-    filesInDirEndingWith(generatedDir, ".template.scala").foreach {
-      source =>
-        val constructor = generatedSource.getDeclaredConstructor(classOf[File], classOf[Codec])
-        val sync = generatedSource.getDeclaredMethod("sync")
-        val defaultCodec: AnyRef = generatedSource.getDeclaredMethod("apply$default$2").invoke(null)
-        val generated =  constructor.newInstance(source, defaultCodec)
-        try {
-          sync.invoke(generated)
-        } catch {
-          case e: java.lang.reflect.InvocationTargetException => {
-            val t = e.getTargetException
-            t.printStackTrace()
-            throw t
+  def compile(sourceDirectory: File, generatedDir: File): Seq[File] = compile(sourceDirectory, generatedDir, None)
+
+  /** Compile templates, skipping those recorded as unchanged in the index file. */
+  def compile(sourceDirectory: File, generatedDir: File, indexFile: File): Seq[File] =
+    compile(sourceDirectory, generatedDir, Some(indexFile))
+
+  private def compile(sourceDirectory: File, generatedDir: File, indexFile: Option[File]): Seq[File] = {
+    val session = TwirlSession(classpath)
+    val index = indexFile.map(new SourceIndex(_, indexSettings(generatedDir)))
+
+    // one walk of the source tree finds every template
+    val scanStart = metrics.start()
+    val sources = scan(sourceDirectory, fileExtensions.keys.toSeq.map(".scala." + _), excludedDirectories)
+    metrics.phase("scan", scanStart)
+    metrics.count(BuildMetrics.FILES_SCANNED, sources.values.map(_.size).sum)
+
+    // without an index to say what was generated, ask Twirl about every generated file instead
+    if (!index.exists(_.isLoaded)) {
+      val cleanupStart = metrics.start()
+      scan(generatedDir, Seq(".template.scala"))(".template.scala").foreach { f =>
+        session.sync(f.file, baseDirectory)
+        if (!f.file.exists) metrics.count(BuildMetrics.STALE_OUTPUTS_DELETED, 1)
+      }
+      metrics.phase("cleanup", cleanupStart)
+    }
+
+    // every supported file extension, in a stable order so errors are reported deterministically
+    val templates = for {
+      (ext, formatter) <- fileExtensions.toSeq
+      template <- sources(".scala." + ext)
+    } yield (template, ext, formatter)
+
+    val outcomes = compileTemplates(session, index, sourceDirectory, generatedDir, templates)
+    val indexStart = metrics.start()
+    index.foreach { i =>
+      if (outcomes.forall(_.isRight)) i.retain(outcomes.map(_.right.get.name).toSet)
+      // outputs of deleted templates, found without reading any generated file
+      i.staleOutputs.map(new File(generatedDir, _)).foreach { file =>
+        if (file.delete()) metrics.count(BuildMetrics.STALE_OUTPUTS_DELETED, 1)
+      }
+      i.save()
+    }
+    metrics.phase("index", indexStart)
+    cache.foreach(_.trim())
+    outcomes.collectFirst { case Left(t) => throw t }
+
+    outcomes.map(o => new File(generatedDir, o.right.get.entry.outputs.head).getAbsoluteFile)
+  }
+
+  /** Compile only the given templates, such as those the watch goal saw change.
+    *
+    * Files that are not templates are ignored.
+    * Returns the generated files whose content changed, followed by those of the templates
+    * calling a template whose signature changed.
+    */
+  def compileChanged(sourceDirectory: File, generatedDir: File, indexFile: File, changed: Seq[File]): Seq[File] = {
+    val session = TwirlSession(classpath)
+    val index = new SourceIndex(indexFile, indexSettings(generatedDir))
+
+    val templates = for {
+      (ext, formatter) <- fileExtensions.toSeq
+      template <- changed.filter(f => f.getName.endsWith(".scala." + ext) && f.isFile).sortBy(_.getPath)
+    } yield (ScannedFile(template), ext, formatter)
+
+    val outcomes = compileTemplates(session, Some(index), sourceDirectory, generatedDir, templates)
+    index.save()
+    cache.foreach(_.trim())
+    outcomes.collectFirst { case Left(t) => throw t }
+
+    val written = outcomes.map(_.right.get).filter(_.written)
+    val signatureChanged = written.filter(_.signatureChanged).map(_.name).toSet
+    val rewritten = written.map(o => new File(generatedDir, o.entry.outputs.head).getAbsoluteFile)
+    rewritten ++ dependentSources(index, generatedDir, signatureChanged).filterNot(rewritten.contains)
+  }
+
+  /** Generated sources of the templates calling any of the given templates, or using the reverse router
+    * when routes is set. These need recompiling when the templates are deleted or the reverse router changes.
+    *
+    * A directory stands for every indexed template inside it.
+    */
+  def dependents(sourceDirectory: File, generatedDir: File, indexFile: File, templates: Seq[File], routes: Boolean): Seq[File] = {
+    val index = new SourceIndex(indexFile, indexSettings(generatedDir))
+    val names = templates.flatMap(indexedTemplates(index, sourceDirectory, _)) ++ (if (routes) Seq(RoutesDependency) else Nil)
+    dependentSources(index, generatedDir, names.toSet)
+  }
+
+  private def dependentSources(index: SourceIndex, generatedDir: File, names: Set[String]): Seq[File] = {
+    if (names.isEmpty) return Nil
+    val dependents = index.dependents(names).filterNot(names.contains)
+      .flatMap(index.get(_).toSeq.flatMap(_.outputs)).map(new File(generatedDir, _).getAbsoluteFile).filter(_.isFile)
+    metrics.count(BuildMetrics.DEPENDENTS_RECOMPILED, dependents.size)
+    dependents
+  }
+
+  /** The indexed templates a file or directory refers to. */
+  private def indexedTemplates(index: SourceIndex, sourceDirectory: File, file: File): Seq[String] = {
+    val name = relativePath(sourceDirectory, file)
+    index.sources.filter(source => source == name || source.startsWith(name.stripSuffix("/") + "/")).toSeq.sorted
+  }
+
+  /** Delete the generated sources of deleted templates.
+    *
+    * A deleted directory removes the output of every indexed template that was inside it.
+    * Returns the generated files that were deleted.
+    */
+  def removeDeleted(sourceDirectory: File, generatedDir: File, indexFile: File, deleted: Seq[File]): Seq[File] = {
+    val index = new SourceIndex(indexFile, indexSettings(generatedDir))
+
+    val removed = deleted.flatMap(indexedTemplates(index, sourceDirectory, _)).distinct
+
+    val outputs = removed.flatMap { source =>
+      val outputs = index.get(source).toSeq.flatMap(_.outputs).map(new File(generatedDir, _))
+      index.remove(source)
+      outputs
+    }
+    outputs.foreach(_.delete())
+    metrics.count(BuildMetrics.STALE_OUTPUTS_DELETED, outputs.size)
+    index.save()
+    outputs.map(_.getAbsoluteFile)
+  }
+
+  /** Compile each template unless the index shows it is unchanged, recording the results in the index.
+    *
+    * Returns the outcome for each template in the order given.
+    */
+  private def compileTemplates(session: TwirlSession, index: Option[SourceIndex], sourceDirectory: File, generatedDir: File,
+                               templates: Seq[(ScannedFile, String, String)]): Seq[Either[Throwable, Outcome]] = {
+    val start = metrics.start()
+    val compiled = parallelMap(templates, parallelism) {
+      case (template, ext, formatter) =>
+        val name = relativePath(sourceDirectory, template.file)
+        val previous = index.flatMap(_.get(name))
+        val hash = index.flatMap(_.knownHash(name, template.stamp))
+          .getOrElse(Util.sha1(Files.readAllBytes(template.file.toPath)))
+
+        if (index.exists(_.isUpToDate(name, hash, generatedDir))) {
+          metrics.count(BuildMetrics.TEMPLATES_SKIPPED, 1)
+          (Outcome(name, previous.get.copy(stamp = template.stamp), written = false, signatureChanged = false), Set.empty[String])
+        } else {
+          metrics.count(BuildMetrics.TEMPLATES_COMPILED, 1)
+          val (file, content) = generate(session, template.file, name, hash, sourceDirectory, generatedDir, ext, formatter)
+          // identical output keeps its timestamp so nothing downstream recompiles it
+          val written = writeIfChanged(file, content)
+          if (written) {
+            metrics.count(BuildMetrics.FILES_CHANGED, 1)
+            metrics.count(BuildMetrics.BYTES_WRITTEN, content.length)
           }
+          val output = relativePath(generatedDir, file)
+          val text = new String(Files.readAllBytes(template.file.toPath), session.codec.charSet)
+          val entry = SourceIndex.Entry(template.stamp, hash, Seq(output), Nil, signature(text))
+          (Outcome(name, entry, written, !previous.exists(_.signature == entry.signature)),
+            references(text, packageOf(output), ext))
         }
     }
+    metrics.phase("twirl", start)
 
-    // generate scala sources from each supported file extension
-    fileExtensions.foreach {
-      case (ext: String, formatter: String) => {
-
-        filesInDirEndingWith(sourceDirectory, ".scala." + ext).foreach {
-          template =>
-            try {
-
-              val compile = compiler.getDeclaredMethod("compile", classOf[java.io.File], classOf[java.io.File], classOf[java.io.File], classOf[String], classOf[String], classOf[Codec], classOf[Boolean], classOf[Boolean])
-              val defaultCodec = compiler.getDeclaredMethod("compile$default$6").invoke(null)
-              val defaultForInclusiveDot = compiler.getDeclaredMethod("compile$default$7").invoke(null)
-              val defaultForUseOldParser = compiler.getDeclaredMethod("compile$default$8").invoke(null)
-              compile.invoke(null, template, sourceDirectory, generatedDir, formatter, "import play.twirl.api._\nimport play.twirl.api.TemplateMagic._" + "\nimport " + templatesImport.toList.mkString("\nimport ").replace("%format%", ext), defaultCodec, defaultForInclusiveDot, defaultForUseOldParser)
-
-            } catch {
-              case e: java.lang.reflect.InvocationTargetException => {
-                throw e.getTargetException
-              }
-            }
-        }
+    // references are resolved once every template's object name is known
+    val objects = index.toSeq.flatMap(i => i.sources.flatMap(source => i.get(source).map(source -> _))) ++
+      compiled.collect { case Right((outcome, _)) => outcome.name -> outcome.entry }
+    val templateNames = objects.flatMap { case (source, entry) => entry.outputs.headOption.map(objectName(_) -> source) }.toMap
+    val outcomes = compiled.map(_.right.map {
+      case (outcome, refs) if refs.isEmpty => outcome
+      case (outcome, refs) =>
+        val calls = refs.flatMap(templateNames.get).filterNot(_ == outcome.name).toSeq.sorted
+        val routes = if (refs.exists(_.split('.').contains("routes"))) Seq(RoutesDependency) else Nil
+        outcome.copy(entry = outcome.entry.copy(dependencies = calls ++ routes))
+    })
+
+    index.foreach { i =>
+      // keep what did compile even when another template failed
+      outcomes.foreach {
+        case Right(outcome) => i.update(outcome.name, outcome.entry)
+        case _ =>
       }
     }
+    outcomes
+  }
+
+  /** Generate a template's code, or restore it from the cache when any build sharing the cache generated it. */
+  private def generate(session: TwirlSession, template: File, name: String, hash: String, sourceDirectory: File,
+                       generatedDir: File, ext: String, formatter: String): (File, Array[Byte]) = cache match {
+    case None => twirl(session, template, sourceDirectory, generatedDir, ext, formatter)
+    case Some(c) =>
+      // the generated header records the template path, so it is part of the key along with the template name
+      val key = BuildCache.key(Seq("twirl", compilerVersion, "forJava=" + forJava, formatter, importsFor(ext),
+        session.codec.name, session.sourcePath(template, baseDirectory), name, hash) ++ hoistSetting: _*)
+      c.get(key).flatMap(_.headOption) match {
+        case Some((output, content)) =>
+          metrics.count(BuildMetrics.CACHE_HITS, 1)
+          (new File(generatedDir, output), content)
+        case None =>
+          metrics.count(BuildMetrics.CACHE_MISSES, 1)
+          val (file, content) = twirl(session, template, sourceDirectory, generatedDir, ext, formatter)
+          c.put(key, Seq(relativePath(generatedDir, file) -> content))
+          (file, content)
+      }
+  }
 
-    filesInDirEndingWith(generatedDir, ".scala").map(_.getAbsoluteFile)
+  private def twirl(session: TwirlSession, template: File, sourceDirectory: File, generatedDir: File,
+                    ext: String, formatter: String): (File, Array[Byte]) = {
+    val (file, content) = session.generate(template, sourceDirectory, generatedDir, formatter, importsFor(ext), baseDirectory)
+    if (!hoistStaticMarkup) (file, content)
+    else (file, StaticMarkup.hoist(new String(content, session.codec.charSet)).getBytes(session.codec.charSet))
   }
 
+  /** Left out unless set, so the index and cache keys of existing builds stay valid. */
+  private def hoistSetting = if (hoistStaticMarkup) Seq("hoistStaticMarkup") else Nil
+
+  /** The jars on the template classpath, whose versions decide what Twirl generates. */
+  private lazy val compilerVersion = classpath.map(_.getName).sorted.mkString(",")
+
+  private def importsFor(ext: String) =
+    "import play.twirl.api._\nimport play.twirl.api.TemplateMagic._" + "\nimport " + templatesImport.toList.mkString("\nimport ").replace("%format%", ext)
+
+  /** Anything that changes the generated code for an unchanged template invalidates the index. */
+  private def indexSettings(generatedDir: File) =
+    (Seq("forJava=" + forJava, "generatedDir=" + generatedDir.getAbsolutePath, "baseDirectory=" + baseDirectory) ++ hoistSetting ++
+      fileExtensions.toSeq.sorted.map { case (ext, formatter) => ext + "=" + formatter + "\n" + importsFor(ext) }).mkString("\n")
+
+}
+
+object TemplateCompiler {
+  /** Recorded as a dependency of templates using the reverse router. */
+  private val RoutesDependency = "<routes>"
+
+  private case class Outcome(name: String, entry: SourceIndex.Entry, written: Boolean, signatureChanged: Boolean)
+
+  private val Identifier = """[A-Za-z_][A-Za-z0-9_]*(?:\.[A-Za-z_][A-Za-z0-9_]*)*""".r
+  private val Import = """@import\s+([A-Za-z0-9_.]+)""".r
+  private val LeadingComments = """^(?s)(\s|@\*.*?\*@)*""".r
+
+  /** The object Twirl generates for a template, from the path of its generated source. */
+  private def objectName(output: String) = output.stripSuffix(".template.scala").replace('/', '.')
+
+  private def packageOf(output: String) = objectName(output).split('.').init.mkString(".")
+
+  /** Every name the template text could use to refer to another template.
+    *
+    * A dotted identifier is qualified, as the scala compiler would, with the template's own
+    * package, the views package Play imports and the template's own imports. This finds more
+    * names than are really referenced, which only costs an occasional needless recompile.
+    */
+  private def references(text: String, templatePackage: String, ext: String): Set[String] = {
+    val scopes = Seq("", templatePackage + ".", "views." + ext + ".") ++
+      Import.findAllMatchIn(text).map(_.group(1).split('.').init.mkString("", ".", "."))
+    (for {
+      identifier <- Identifier.findAllIn(text).toSet[String]
+      parts = identifier.split('.')
+      length <- 1 to parts.length
+      scope <- scopes
+    } yield scope + parts.take(length).mkString("."))
+  }
+
+  /** Hash of what callers of a template depend on: its parameter lists and imports. */
+  private def signature(text: String): String = {
+    val body = text.substring(LeadingComments.findPrefixOf(text).map(_.length).getOrElse(0))
+    val parameters = if (body.startsWith("@(")) {
+      var depth = 0
+      var end = 1
+      while (end < body.length && (depth > 0 || body.charAt(end) == '(')) {
+        body.charAt(end) match {
+          case '(' => depth += 1
+          case ')' => depth -= 1
+          case _ =>
+        }
+        end += 1
+      }
+      body.substring(0, end)
+    } else ""
+    Util.sha1((parameters +: Import.findAllIn(text).toSeq).mkString("\n").getBytes("UTF-8"))
+  }
 }
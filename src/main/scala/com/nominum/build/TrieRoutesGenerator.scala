@@ -0,0 +1,269 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build
+
+import org.apache.maven.plugin.MojoExecutionException
+import play.routes.compiler._
+
+/** Generates routers that find the routes a request could match through a prefix tree instead of trying every route.
+  *
+  * The router Play generates is a single pattern match trying each route's regular expression in
+  * turn, so a request for a route near the end of a large routes file pays for every failed match
+  * before it. This generator keeps everything the given generator writes and only replaces that
+  * match: each route becomes a case of its own, and a dispatcher generated next to the router
+  * selects the cases whose method and static path prefix fit the request. Those are tried in
+  * routes file order, so the first matching route still wins; regular expressions are only
+  * evaluated for the few candidates, which is where dynamic path parts are matched.
+  *
+  * Fully static routes are found by an exact lookup. A route or include is filed in the tree under
+  * the static path segments before its first dynamic part.
+  */
+class TrieRoutesGenerator(base: RoutesGenerator) extends RoutesGenerator {
+  import TrieRoutesGenerator._
+
+  def id: String = base.id + "-trie"
+
+  def generate(task: RoutesCompiler.RoutesCompilerTask, namespace: Option[String], rules: List[Rule]): Seq[(String, String)] = {
+    val generated = base.generate(task, namespace, rules)
+    val routerFile = namespace.getOrElse("router").replace('.', '/') + "/Routes.scala"
+    val routerPackage = namespace.getOrElse("router")
+
+    // Play names the router "router//Routes.scala"
+    generated.map {
+      case (name, code) if name.replaceAll("/+", "/") == routerFile => (name, dispatching(code, rules, task.file))
+      case other => other
+    } :+ (routerPackage.replace('.', '/') + "/" + DispatcherName + ".scala") -> dispatcher(routerPackage, task.file)
+  }
+}
+
+object TrieRoutesGenerator {
+  private val DispatcherName = "RoutesDispatcher"
+
+  private val RoutesMethod = "  def routes: PartialFunction[RequestHeader, Handler] = {\n"
+  private val RouterEnd = "\n  }\n}"
+  private val Case = """(?m)^    // @LINE:\d+\n    case """.r
+
+  /** Replace the router's single match with one case per rule, selected by the dispatcher. */
+  private def dispatching(code: String, rules: List[Rule], source: java.io.File): String = {
+    val start = code.indexOf(RoutesMethod)
+    val end = code.lastIndexOf(RouterEnd)
+    if (start < 0 || end < start) unrecognized(source)
+    val body = code.substring(start + RoutesMethod.length, end)
+
+    val offsets = Case.findAllMatchIn(body).map(_.start).toSeq
+    if (offsets.size != rules.size) unrecognized(source)
+    val cases = (offsets :+ body.length).sliding(2).map { case Seq(from, to) => body.substring(from, to).replaceAll("\\s+$", "") }.toSeq
+
+    val out = new StringBuilder(code.substring(0, start))
+    out.append("  private[this] lazy val dispatch_tree = new ").append(DispatcherName)
+      .append("(this.prefix, this.defaultPrefix, Array[").append(DispatcherName).append(".Rule](\n")
+    out.append(rules.map(r => "    " + DispatcherName + "." + rule(r)).mkString(",\n"))
+    out.append("\n  ))\n\n")
+    cases.zipWithIndex.foreach { case (c, i) =>
+      out.append("  private[this] lazy val dispatch_case").append(i).append(": PartialFunction[RequestHeader, Handler] = {\n")
+        .append(c).append("\n  }\n\n")
+    }
+    out.append("  private[this] lazy val dispatch_routes = dispatch_tree.routes(Array[PartialFunction[RequestHeader, Handler]](\n")
+      .append(cases.indices.map("    dispatch_case" + _).mkString(",\n")).append("\n  ))\n\n")
+    out.append("  def routes: PartialFunction[RequestHeader, Handler] = dispatch_routes\n}\n")
+    out.toString
+  }
+
+  private def unrecognized(source: java.io.File) =
+    throw new MojoExecutionException("The router generated for " + source + " was not recognized; use a routes generator without -trie")
+
+  /** How the dispatcher files a rule: by method and the static text its path starts with. */
+  private def rule(rule: Rule): String = rule match {
+    case Route(verb, PathPattern(parts), _, _) if parts.isEmpty =>
+      "root(" + literal(verb.value) + ")"
+    case Route(verb, PathPattern(parts), _, _) =>
+      val prefix = parts.takeWhile(_.isInstanceOf[StaticPart]).map(_.asInstanceOf[StaticPart].value).mkString
+      val kind = if (parts.forall(_.isInstanceOf[StaticPart])) "exact" else "route"
+      kind + "(" + literal(verb.value) + ", " + literal(prefix) + ")"
+    case Include(prefix, _) =>
+      "include(" + literal(prefix) + ")"
+  }
+
+  private def literal(s: String): String = "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\""
+
+  private def dispatcher(routerPackage: String, source: java.io.File): String = {
+    val scope = routerPackage.split('.').last
+    s"""// @GENERATOR:play-pure-maven-plugin
+       |// @SOURCE:${source.getAbsolutePath}
+       |
+       |package $routerPackage
+       |
+       |import play.api.mvc.{Handler, RequestHeader}
+       |
+       |/** Finds the rules of a router that a request could match, in routes file order.
+       |  *
+       |  * Rules are filed under their method and the static path segments before their first
+       |  * dynamic part. A lookup walks the segments of the request path and collects the rules
+       |  * filed along the way, so only those are tried.
+       |  */
+       |private[$scope] class $DispatcherName(prefix: String, defaultPrefix: String, rules: Array[$DispatcherName.Rule]) {
+       |  import $DispatcherName._
+       |
+       |  private[this] val rootRules = new java.util.HashMap[String, Array[Int]]
+       |  private[this] val tree = new Node
+       |
+       |  rules.zipWithIndex.foreach { case (rule, index) =>
+       |    if (rule.root) {
+       |      rootRules.put(rule.method, append(rootRules.get(rule.method), index))
+       |    } else {
+       |      val slash = rule.prefix.lastIndexOf('/')
+       |      val node = rule.prefix.substring(0, slash + 1).split("/", -1).init.foldLeft(tree)(_.child(_))
+       |      node.add(rule.method, rule.prefix.substring(slash + 1), rule.exact, index)
+       |    }
+       |  }
+       |
+       |  /** Indexes of the rules whose method and static parts fit the request, in ascending order. */
+       |  def candidates(method: String, path: String): Array[Int] = {
+       |    if (!path.startsWith(prefix)) return NoRules
+       |    val found = new Found
+       |    if (path.length == prefix.length) found.add(rootRules.get(method))
+       |    if (path.startsWith(defaultPrefix, prefix.length)) {
+       |      var node = tree
+       |      var from = prefix.length + defaultPrefix.length
+       |      while (node != null) {
+       |        node.collect(method, path, from, found)
+       |        val slash = path.indexOf('/', from)
+       |        node = if (slash < 0) null else node.children.get(path.substring(from, slash))
+       |        from = slash + 1
+       |      }
+       |    }
+       |    found.sorted
+       |  }
+       |
+       |  /** The router's routes, trying only the candidate cases for each request. */
+       |  def routes(cases: Array[PartialFunction[RequestHeader, Handler]]): PartialFunction[RequestHeader, Handler] =
+       |    new scala.runtime.AbstractPartialFunction[RequestHeader, Handler] {
+       |      def isDefinedAt(request: RequestHeader): Boolean = {
+       |        val indexes = candidates(request.method, request.path)
+       |        var i = 0
+       |        while (i < indexes.length) {
+       |          if (cases(indexes(i)).isDefinedAt(request)) return true
+       |          i += 1
+       |        }
+       |        false
+       |      }
+       |
+       |      override def applyOrElse[A1 <: RequestHeader, B1 >: Handler](request: A1, default: A1 => B1): B1 = {
+       |        val indexes = candidates(request.method, request.path)
+       |        var i = 0
+       |        while (i < indexes.length) {
+       |          val handler = cases(indexes(i)).applyOrElse(request, NotFound)
+       |          if (handler ne Missing) return handler
+       |          i += 1
+       |        }
+       |        default(request)
+       |      }
+       |    }
+       |}
+       |
+       |private[$scope] object $DispatcherName {
+       |  /** A route or include. Includes match any method, shown by a null method. */
+       |  final class Rule private[$DispatcherName] (val method: String, val prefix: String, val exact: Boolean, val root: Boolean)
+       |
+       |  /** A route whose path is the router prefix itself. */
+       |  def root(method: String): Rule = new Rule(method, "", true, true)
+       |
+       |  /** A route without dynamic parts. */
+       |  def exact(method: String, path: String): Rule = new Rule(method, path, true, false)
+       |
+       |  /** A route whose static parts before the first dynamic one are the prefix. */
+       |  def route(method: String, prefix: String): Rule = new Rule(method, prefix, false, false)
+       |
+       |  def include(prefix: String): Rule = new Rule(null, prefix, false, false)
+       |
+       |  private val NoRules = new Array[Int](0)
+       |
+       |  private object Missing extends Handler
+       |  private val NotFound: Any => Handler = _ => Missing
+       |
+       |  private def append(indexes: Array[Int], index: Int): Array[Int] =
+       |    if (indexes == null) Array(index) else indexes :+ index
+       |
+       |  /** Rules filed under a sequence of path segments, by method, and the segments that follow. */
+       |  private final class Node {
+       |    val children = new java.util.HashMap[String, Node]
+       |    private[this] val exact = new java.util.HashMap[String, Array[(String, Int)]]
+       |    private[this] val prefixed = new java.util.HashMap[String, Array[(String, Int)]]
+       |
+       |    def child(segment: String): Node = {
+       |      var node = children.get(segment)
+       |      if (node == null) {
+       |        node = new Node
+       |        children.put(segment, node)
+       |      }
+       |      node
+       |    }
+       |
+       |    /** Exact rules are filed by the rest of their path and prefixed ones by method. */
+       |    def add(method: String, tail: String, isExact: Boolean, index: Int): Unit =
+       |      if (isExact) exact.put(tail, Option(exact.get(tail)).getOrElse(Array.empty[(String, Int)]) :+ (method -> index))
+       |      else prefixed.put(method, Option(prefixed.get(method)).getOrElse(Array.empty[(String, Int)]) :+ (tail -> index))
+       |
+       |    /** Add the rules filed here that fit the rest of the path, from the given position. */
+       |    def collect(method: String, path: String, from: Int, found: Found): Unit = {
+       |      if (!exact.isEmpty) {
+       |        val rules = exact.get(path.substring(from))
+       |        if (rules != null) {
+       |          var i = 0
+       |          while (i < rules.length) {
+       |            if (rules(i)._1 == method) found.add(rules(i)._2)
+       |            i += 1
+       |          }
+       |        }
+       |      }
+       |      if (!prefixed.isEmpty) {
+       |        collect(prefixed.get(method), path, from, found)
+       |        collect(prefixed.get(null), path, from, found)
+       |      }
+       |    }
+       |
+       |    private def collect(rules: Array[(String, Int)], path: String, from: Int, found: Found): Unit =
+       |      if (rules != null) {
+       |        var i = 0
+       |        while (i < rules.length) {
+       |          if (path.startsWith(rules(i)._1, from)) found.add(rules(i)._2)
+       |          i += 1
+       |        }
+       |      }
+       |  }
+       |
+       |  private final class Found {
+       |    private[this] var indexes = new Array[Int](8)
+       |    private[this] var size = 0
+       |
+       |    def add(index: Int): Unit = {
+       |      if (size == indexes.length) indexes = java.util.Arrays.copyOf(indexes, size * 2)
+       |      indexes(size) = index
+       |      size += 1
+       |    }
+       |
+       |    def add(more: Array[Int]): Unit = if (more != null) more.foreach(add)
+       |
+       |    def sorted: Array[Int] = {
+       |      val result = java.util.Arrays.copyOf(indexes, size)
+       |      if (size > 1) java.util.Arrays.sort(result)
+       |      result
+       |    }
+       |  }
+       |}
+       |""".stripMargin
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build
+
+import java.io.File
+import java.lang.reflect.{InvocationTargetException, Method}
+import java.net.{URL, URLClassLoader}
+import java.nio.file.Files
+
+import play.twirl.compiler.TemplateCompilationError
+
+import scala.collection.mutable
+import scala.io.Codec
+
+/** Entry points into the Twirl compiler, resolved once per classloader.
+  *
+  * Sessions are shared by classpath so repeated compiles, such as those triggered
+  * by the watch goal, reuse a single classloader instead of creating one per call.
+  * A session keeps no state between calls, so the modules of a parallel build
+  * (`mvn -T`) all compile through the same one at once.
+  */
+class TwirlSession private (val classLoader: ClassLoader) {
+  private val compiler = classLoader.loadClass("play.twirl.compiler.TwirlCompiler")
+  private val generatedSource = classLoader.loadClass("play.twirl.compiler.GeneratedSource")
+
+  private val compileMethod = compiler.getDeclaredMethod("compile",
+    classOf[File], classOf[File], classOf[File], classOf[String], classOf[String], classOf[Codec], classOf[Boolean], classOf[Boolean])
+  private val parseAndGenerateCodeMethod = compiler.getDeclaredMethod("parseAndGenerateCode",
+    classOf[Array[String]], classOf[Array[Byte]], classOf[Codec], classOf[String], classOf[String], classOf[String],
+    classOf[String], classOf[Boolean], classOf[Boolean])
+  private val generatedFileMethod = compiler.getDeclaredMethod("generatedFile",
+    classOf[File], classOf[Codec], classOf[File], classOf[File], classOf[Boolean])
+  private val sourceConstructor = generatedSource.getDeclaredConstructor(classOf[File], classOf[Codec])
+  private val fileMethod = generatedSource.getDeclaredMethod("file")
+  private val metaMethod = generatedSource.getDeclaredMethod("meta")
+
+  val codec: Codec = invoke(compiler.getDeclaredMethod("compile$default$6"), null)
+  private val inclusiveDot: java.lang.Boolean = invoke(compiler.getDeclaredMethod("compile$default$7"), null)
+  private val useOldParser: java.lang.Boolean = invoke(compiler.getDeclaredMethod("compile$default$8"), null)
+
+  /** Compile a template, returning the generated file if Twirl wrote one. */
+  def compile(template: File, sourceDirectory: File, generatedDir: File, formatter: String, imports: String): Option[File] =
+    invoke[Option[File]](compileMethod, null,
+      template, sourceDirectory, generatedDir, formatter, imports, codec, inclusiveDot, useOldParser)
+
+  /** Generate the code for a template without writing it, returning the file it belongs in and its content.
+    *
+    * The content is exactly what compile would write.
+    */
+  def generate(template: File, sourceDirectory: File, generatedDir: File, formatter: String, imports: String,
+               baseDirectory: File): (File, Array[Byte]) = {
+    val (templateName, source) = invoke[(Array[String], AnyRef)](generatedFileMethod, null,
+      template, codec, sourceDirectory, generatedDir, inclusiveDot)
+    val code = try {
+      invoke[String](parseAndGenerateCodeMethod, null, templateName, Files.readAllBytes(template.toPath), codec,
+        sourcePath(template, baseDirectory), formatter + ".Appendable", formatter, imports, inclusiveDot, useOldParser)
+    } catch {
+      // Twirl names the relative path recorded in the header, which is not where the template is
+      case e: TemplateCompilationError => throw e.copy(source = template)
+    }
+    (invoke[File](fileMethod, source), code.getBytes(codec.charSet))
+  }
+
+  /** The template path recorded in the generated header, relative to the base directory. */
+  def sourcePath(template: File, baseDirectory: File): String = {
+    val path = template.getAbsoluteFile.toPath
+    val relative = try baseDirectory.getAbsoluteFile.toPath.relativize(path) catch {
+      // on another drive
+      case _: IllegalArgumentException => path
+    }
+    relative.toString.replace(File.separatorChar, '/')
+  }
+
+  /** The scala file Twirl generates for a template. */
+  def generatedFile(template: File, sourceDirectory: File, generatedDir: File): File = {
+    val (_, source) = invoke[(_, AnyRef)](generatedFileMethod, null, template, codec, sourceDirectory, generatedDir, inclusiveDot)
+    invoke[File](fileMethod, source)
+  }
+
+  /** Delete a generated file whose template no longer exists.
+    *
+    * Twirl's own sync looks for the template relative to the working directory, which would
+    * delete every generated file of a project compiled from another directory.
+    */
+  def sync(generated: File, baseDirectory: File): Unit = {
+    val source = sourceConstructor.newInstance(generated, codec).asInstanceOf[AnyRef]
+    val meta = invoke[Map[String, String]](metaMethod, source)
+    if (generated.exists && !meta.get("SOURCE").exists(TwirlSession.sourceFile(_, baseDirectory).exists)) {
+      generated.delete()
+    }
+  }
+
+  private def invoke[T](method: Method, target: AnyRef, args: AnyRef*): T = {
+    try {
+      method.invoke(target, args: _*).asInstanceOf[T]
+    } catch {
+      case e: InvocationTargetException => throw e.getTargetException
+    }
+  }
+}
+
+object TwirlSession {
+  /** The template a generated header's source path refers to; older headers record absolute paths. */
+  def sourceFile(path: String, baseDirectory: File): File = {
+    val file = new File(path)
+    if (file.isAbsolute) file else new File(baseDirectory, path)
+  }
+
+  private val sessions = mutable.Map[Seq[URL], TwirlSession]()
+
+  def apply(classpath: Seq[File]): TwirlSession = {
+    val urls = classpath.map(_.toURI.toURL)
+    sessions.synchronized {
+      sessions.getOrElseUpdate(urls, new TwirlSession(new URLClassLoader(urls.toArray, getClass.getClassLoader)))
+    }
+  }
+}
@@ -1,32 +1,122 @@
 package com.nominum.build
 
 import java.io.File
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.charset.StandardCharsets
+import java.nio.file.{AtomicMoveNotSupportedException, FileVisitResult, Files, Path, SimpleFileVisitor, StandardCopyOption}
+import java.security.MessageDigest
+import java.util.concurrent.{Callable, ExecutionException, Executors}
 import collection.mutable.ListBuffer
 
-package object Util {
-  def filesInDirEndingWith(dir: File, end: String): Seq[File] = {
-    val files = dir.listFiles
-    if (files == null) throw new RuntimeException("Directory " + dir.getAbsolutePath + " not found")
+object Util {
+  /** A file found by a scan, with the attributes read while walking the tree. */
+  case class ScannedFile(file: File, size: Long, lastModified: Long) {
+    /** Cheap fingerprint used to avoid re-reading files whose content cannot have changed. */
+    def stamp: String = size + ":" + lastModified
+  }
+
+  object ScannedFile {
+    def apply(file: File): ScannedFile = ScannedFile(file, file.length, file.lastModified)
+  }
+
+  /** Walk a directory tree once, classifying regular files by the suffixes they end with.
+    *
+    * A file ending with several of the suffixes is listed under each of them.
+    * Directories whose name is in `excludedDirectories` are not entered.
+    * Files are returned sorted by path so callers see a stable order.
+    */
+  def scan(dir: File, suffixes: Seq[String], excludedDirectories: Set[String] = Set.empty): Map[String, Seq[ScannedFile]] = {
+    if (!dir.isDirectory) throw new RuntimeException("Directory " + dir.getAbsolutePath + " not found")
 
-    val filesInDir = files.filter(_.isFile).filter(_.getName.endsWith(end))
+    val found = suffixes.map(_ -> new ListBuffer[ScannedFile]).toMap
+    val root = dir.toPath
+    Files.walkFileTree(root, new SimpleFileVisitor[Path] {
+      override def preVisitDirectory(path: Path, attrs: BasicFileAttributes): FileVisitResult =
+        if (path != root && excludedDirectories.contains(path.getFileName.toString)) FileVisitResult.SKIP_SUBTREE
+        else FileVisitResult.CONTINUE
 
-    // recurse into subdirectories
-    var nestedFiles : ListBuffer[File] = new ListBuffer[File]
-    files.filter(_.isDirectory).foreach { dir => nestedFiles ++= filesInDirEndingWith(dir, end) }
+      override def visitFile(path: Path, attrs: BasicFileAttributes): FileVisitResult = {
+        if (attrs.isRegularFile) {
+          val name = path.getFileName.toString
+          lazy val scanned = ScannedFile(path.toFile, attrs.size, attrs.lastModifiedTime.toMillis)
+          suffixes.foreach { suffix => if (name.endsWith(suffix)) found(suffix) += scanned }
+        }
+        FileVisitResult.CONTINUE
+      }
+    })
+    found.mapValues(_.sortBy(_.file.getPath).toList).view.force
+  }
+
+  /** Path of a file relative to a base directory, using '/' as separator. */
+  def relativePath(base: File, file: File): String = base.toURI.relativize(file.toURI).getPath
 
-    filesInDir ++ nestedFiles
+  /** Replace a generated file only if its content would change, so its modification time is kept otherwise.
+    *
+    * The timestamp line Twirl and the routes compiler put in every file is not counted as a change.
+    * The new content is written beside the file and renamed over it, so readers never see a partial file.
+    * Returns true if the file was written.
+    */
+  def writeIfChanged(file: File, content: Array[Byte]): Boolean = {
+    if (file.isFile && withoutDate(Files.readAllBytes(file.toPath)) == withoutDate(content)) return false
+
+    val dir = file.getAbsoluteFile.getParentFile
+    dir.mkdirs()
+    val tmp = Files.createTempFile(dir.toPath, file.getName, ".tmp")
+    try {
+      Files.write(tmp, content)
+      try {
+        Files.move(tmp, file.toPath, StandardCopyOption.ATOMIC_MOVE)
+      } catch {
+        case e: AtomicMoveNotSupportedException => Files.move(tmp, file.toPath, StandardCopyOption.REPLACE_EXISTING)
+      }
+    } finally {
+      Files.deleteIfExists(tmp)
+    }
+    true
   }
 
-  def filesInDirStartingWith(dir: File, start: String): Seq[File] = {
-    val files = dir.listFiles
-    if (files == null) throw new RuntimeException("Directory " + dir.getAbsolutePath + " not found")
+  /** Generated code without the date Twirl records in its "-- GENERATED --" block or the routes "// @DATE:" header line.
+    *
+    * Only those lines are dropped: template text copied into the code may have lines that look the same.
+    */
+  private def withoutDate(content: Array[Byte]): Seq[String] = {
+    val lines = new String(content, StandardCharsets.ISO_8859_1).split("\n", -1).toSeq
+    // routes files start with a run of "// @" comments
+    val routesDate = lines.takeWhile(_.startsWith("// @")).indexWhere(_.startsWith("// @DATE:"))
+    // Twirl ends its files with a comment between two "-- GENERATED --" lines
+    val end = lines.lastIndexWhere(_.trim == GeneratedMarker)
+    val start = lines.lastIndexWhere(_.trim == GeneratedMarker, end - 1)
+    val twirlDate = if (start < 0) -1 else lines.indexWhere(_.trim.startsWith("DATE:"), start + 1) match {
+      case i if i < end => i
+      case _ => -1
+    }
+    lines.zipWithIndex.collect { case (line, i) if i != routesDate && i != twirlDate => line }
+  }
 
-    val filesInDir = files.filter(_.isFile).filter(_.getName.startsWith(start))
+  private val GeneratedMarker = "-- GENERATED --"
 
-    // recurse into subdirectories
-    var nestedFiles : ListBuffer[File] = new ListBuffer[File]
-    files.filter(_.isDirectory).foreach { dir => nestedFiles ++= filesInDirStartingWith(dir, start) }
+  /** Hex encoded SHA-1 digest, used to detect content changes between builds. */
+  def sha1(bytes: Array[Byte]): String =
+    MessageDigest.getInstance("SHA-1").digest(bytes).map("%02x".format(_)).mkString
 
-    filesInDir ++ nestedFiles
+  /** Apply f to every item on up to `parallelism` threads.
+    *
+    * Every item is processed even if some fail; outcomes are returned in the order of `items`
+    * so callers can report the first failure in input order rather than the first to happen.
+    * Any Throwable, errors included, becomes a Left whatever the parallelism.
+    */
+  def parallelMap[A, B](items: Seq[A], parallelism: Int)(f: A => B): Seq[Either[Throwable, B]] = {
+    if (parallelism <= 1 || items.size <= 1) {
+      return items.map(item => try Right(f(item)) catch { case t: Throwable => Left(t) })
+    }
+    val executor = Executors.newFixedThreadPool(math.min(parallelism, items.size))
+    try {
+      val futures = items.map(item => executor.submit(new Callable[B] { def call() = f(item) }))
+      futures.map { future =>
+        try Right(future.get) catch { case e: ExecutionException => Left(e.getCause) }
+      }
+    } finally {
+      executor.shutdown()
+    }
   }
 }
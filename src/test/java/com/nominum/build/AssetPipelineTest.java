@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import scala.collection.JavaConversions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class AssetPipelineTest extends TestCase {
+
+    private File dir;
+    private File assets;
+    private File output;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TestFiles.createDirectory();
+        assets = new File(dir, "public");
+        output = new File(dir, "target/classes/public");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TestFiles.delete(dir);
+    }
+
+    public void testDeletedAssetRemovesItsOutputs() throws IOException {
+        File asset = new File(assets, "css/main.css");
+        TestFiles.write(asset, compressible("body"));
+        process("css");
+        assertTrue(new File(output, "css/main.css.gz").isFile());
+
+        asset.delete();
+        TestFiles.write(new File(assets, "other.css"), "p {}");
+        process("css");
+        assertEquals(0, new File(output, "css").list().length);
+    }
+
+    public void testSettingsChangeRemovesOutputsNoLongerGenerated() throws IOException {
+        TestFiles.write(new File(assets, "css/main.css"), compressible("body"));
+        process("css");
+        assertTrue(new File(output, "css/main.css.gz").isFile());
+
+        process();
+        assertFalse(new File(output, "css/main.css.gz").exists());
+        assertTrue(new File(output, "css/main.css").isFile());
+        assertEquals(3, new File(output, "css").list().length);
+    }
+
+    private void process(String... compressedExtensions) {
+        new AssetPipeline(1, JavaConversions.asScalaBuffer(Arrays.asList(compressedExtensions)).toSet(),
+                new BuildMetrics("test")).process(assets, output, new File(dir, "target/play-assets.index"),
+                new File(dir, "target/classes/assets.manifest"));
+    }
+
+    private static String compressible(String selector) {
+        StringBuilder css = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            css.append(selector).append(" .item").append(i).append(" { margin: 0; padding: 0; }\n");
+        }
+        return css.toString();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import scala.Tuple2;
+import scala.collection.JavaConversions;
+import scala.collection.Seq;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Generated sources stored in a cache directory and restored by other builds sharing it.
+ */
+public class BuildCacheTest extends TestCase {
+
+    private File dir;
+    private File cacheDirectory;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TestFiles.createDirectory();
+        cacheDirectory = new File(dir, "cache");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TestFiles.delete(dir);
+    }
+
+    private static Seq<Tuple2<String, byte[]>> outputs(String path, String content) {
+        return JavaConversions.asScalaBuffer(Collections.singletonList(
+                new Tuple2<String, byte[]>(path, content.getBytes(StandardCharsets.UTF_8)))).toList();
+    }
+
+    private static String content(BuildCache cache, String key) {
+        Tuple2<String, byte[]> output = cache.get(key).get().head();
+        return output._1() + "=" + new String(output._2(), StandardCharsets.UTF_8);
+    }
+
+    private static String key(String... parts) {
+        return BuildCache$.MODULE$.key(JavaConversions.asScalaBuffer(Arrays.asList(parts)));
+    }
+
+    /** The file holding an entry, found by its key. */
+    private File entry(String key) {
+        return new File(new File(cacheDirectory, key.substring(0, 2)), key + ".entry");
+    }
+
+    public void testStoredEntryIsRestored() {
+        BuildCache cache = new DirectoryBuildCache(cacheDirectory, 1024 * 1024);
+        String key = key("twirl", "forJava=false", "hash");
+        assertTrue(cache.get(key).isEmpty());
+
+        cache.put(key, outputs("views/html/index.template.scala", "object index"));
+        // as another build sharing the directory sees it
+        assertEquals("views/html/index.template.scala=object index",
+                content(new DirectoryBuildCache(cacheDirectory, 1024 * 1024), key));
+    }
+
+    public void testKeysDependOnEveryPart() {
+        assertEquals(key("twirl", "a"), key("twirl", "a"));
+        assertFalse(key("twirl", "a").equals(key("twirl", "b")));
+        assertFalse(key("ab", "c").equals(key("a", "bc")));
+    }
+
+    public void testPublishedEntryIsNotReplaced() {
+        BuildCache cache = new DirectoryBuildCache(cacheDirectory, 1024 * 1024);
+        String key = key("hash");
+        cache.put(key, outputs("a.scala", "first"));
+        cache.put(key, outputs("a.scala", "second"));
+        assertEquals("a.scala=first", content(cache, key));
+    }
+
+    public void testDamagedEntryIsAMiss() throws IOException {
+        BuildCache cache = new DirectoryBuildCache(cacheDirectory, 1024 * 1024);
+        String key = key("hash");
+        cache.put(key, outputs("a.scala", "content"));
+        TestFiles.write(entry(key), "truncated");
+        assertTrue(cache.get(key).isEmpty());
+    }
+
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+        String oldest = key("oldest");
+        String used = key("used");
+        String newest = key("newest");
+        BuildCache cache = new DirectoryBuildCache(cacheDirectory, 1024 * 1024);
+        cache.put(oldest, outputs("a.scala", "a"));
+        cache.put(used, outputs("b.scala", "b"));
+        long entrySize = entry(oldest).length();
+        long now = System.currentTimeMillis();
+        assertTrue(entry(oldest).setLastModified(now - 20000));
+        assertTrue(entry(used).setLastModified(now - 30000));
+
+        // room for two entries; reading one makes it the most recently used
+        cache = new DirectoryBuildCache(cacheDirectory, 2 * entrySize);
+        assertFalse(cache.get(used).isEmpty());
+        cache.put(newest, outputs("c.scala", "c"));
+        cache.trim();
+
+        assertFalse(entry(oldest).exists());
+        assertTrue(entry(used).isFile());
+        assertTrue(entry(newest).isFile());
+    }
+
+    public void testAbandonedTemporaryFilesAreDeleted() throws IOException {
+        BuildCache cache = new DirectoryBuildCache(cacheDirectory, 1024 * 1024);
+        String key = key("hash");
+        File abandoned = new File(entry(key).getParentFile(), "interrupted.tmp");
+        File inProgress = new File(entry(key).getParentFile(), "writing.tmp");
+        TestFiles.write(abandoned, "partial");
+        TestFiles.write(inProgress, "partial");
+        assertTrue(abandoned.setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000L));
+
+        cache.put(key, outputs("a.scala", "content"));
+        cache.trim();
+        assertFalse(abandoned.exists());
+        assertTrue(inProgress.isFile());
+    }
+
+    public void testRoutesAreRestoredInAnotherCheckout() throws IOException {
+        String routes = "GET     /       controllers.Application.index()\n";
+        File first = new File(dir, "first/conf");
+        File second = new File(dir, "second/conf");
+        TestFiles.write(new File(first, "routes"), routes);
+        TestFiles.write(new File(second, "routes"), routes);
+
+        BuildMetrics metrics = compileRoutes(first);
+        assertEquals(1, metrics.counter(BuildMetrics.CACHE_MISSES));
+        metrics = compileRoutes(second);
+        assertEquals(1, metrics.counter(BuildMetrics.CACHE_HITS));
+        // the restored router names the routes file it was restored for
+        assertTrue(TestFiles.read(new File(second, "../generated/router/Routes.scala"))
+                .contains("// @SOURCE:" + new File(second, "routes").getAbsolutePath()));
+    }
+
+    private BuildMetrics compileRoutes(File conf) {
+        BuildMetrics metrics = new BuildMetrics("test");
+        new PlayRoutesCompiler(new RoutesCompilerOptions().setParallelism(1).setBuildCache(cacheDirectory, 10), metrics)
+                .compile(JavaConversions.asScalaBuffer(Collections.singletonList(conf)).toList(),
+                        new File(conf, "../generated"), new File(conf, "../routes.index"));
+        return metrics;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches of file events, and the time of the first event the watch goal measures its latency from.
+ */
+public class ChangeBatcherTest extends TestCase {
+
+    private final BlockingQueue<ChangeBatcher.Batch> batches = new LinkedBlockingQueue<ChangeBatcher.Batch>();
+
+    private final ChangeBatcher batcher = new ChangeBatcher(200, new ChangeBatcher.Handler() {
+        public void handle(ChangeBatcher.Batch batch) {
+            batches.add(batch);
+        }
+    }, new SystemStreamLog());
+
+    @Override
+    protected void setUp() {
+        batcher.start();
+    }
+
+    public void testRepeatedEventsKeepTheStartOfTheBatch() throws InterruptedException {
+        File file = new File("app/views/index.scala.html");
+        batcher.changed(file);
+        long afterFirst = System.nanoTime();
+        // editors report several modifications of a file for one save
+        Thread.sleep(100);
+        batcher.changed(file);
+        Thread.sleep(100);
+        batcher.changed(file);
+
+        ChangeBatcher.Batch batch = batches.poll(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singleton(file), batch.changed);
+        assertTrue(batch.firstEvent <= afterFirst);
+    }
+
+    public void testNextBatchStartsAtItsOwnFirstEvent() throws InterruptedException {
+        File file = new File("app/views/index.scala.html");
+        batcher.deleted(file);
+        ChangeBatcher.Batch first = batches.poll(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singleton(file), first.deleted);
+
+        long before = System.nanoTime();
+        batcher.changed(file);
+        ChangeBatcher.Batch second = batches.poll(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singleton(file), second.changed);
+        assertTrue(second.deleted.isEmpty());
+        assertTrue(second.firstEvent >= before);
+    }
+}
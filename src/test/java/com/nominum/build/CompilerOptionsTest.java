@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** The options reach the compile daemon as they were set. */
+public class CompilerOptionsTest extends TestCase {
+
+    public void testTemplateOptionsRoundTrip() throws IOException {
+        TemplateCompilerOptions sent = new TemplateCompilerOptions()
+                .setForJava(false)
+                .setParallelism(3)
+                .setExcludedDirectories(Arrays.asList("node_modules", "bower_components"))
+                .setBuildCache(new File("/tmp/cache"), 12)
+                .setHoistStaticMarkup(true)
+                .setBaseDirectory(new File("/work/module"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sent.writeTo(new DataOutputStream(bytes));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        TemplateCompilerOptions received = TemplateCompilerOptions.readFrom(in);
+
+        assertEquals(-1, in.read());
+        assertFalse(received.isForJava());
+        assertEquals(3, received.getParallelism());
+        assertEquals(Arrays.asList("node_modules", "bower_components"), received.getExcludedDirectories());
+        assertNotNull(received.getBuildCache());
+        assertTrue(received.isHoistStaticMarkup());
+        assertEquals(new File("/work/module").getAbsoluteFile(), received.getBaseDirectory());
+    }
+
+    public void testRoutesOptionsRoundTrip() throws IOException {
+        RoutesCompilerOptions sent = new RoutesCompilerOptions()
+                .setGenerator("injected-trie")
+                .setGenerateReverseRouter(false)
+                .setNamespaceReverseRouter(true)
+                .setSplitReverseRouter(true)
+                .setAdditionalImports(Arrays.asList("controllers.Binders._"))
+                .setParallelism(2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sent.writeTo(new DataOutputStream(bytes));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        RoutesCompilerOptions received = RoutesCompilerOptions.readFrom(in);
+
+        assertEquals(-1, in.read());
+        assertEquals("injected-trie", received.getGenerator());
+        assertFalse(received.isGenerateReverseRouter());
+        assertTrue(received.isNamespaceReverseRouter());
+        assertTrue(received.isSplitReverseRouter());
+        assertEquals(Arrays.asList("controllers.Binders._"), received.getAdditionalImports());
+        assertEquals(2, received.getParallelism());
+        assertNull(received.getBuildCache());
+    }
+}
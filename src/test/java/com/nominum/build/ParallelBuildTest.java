@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import scala.collection.JavaConversions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Modules of a reactor compiling their templates and routes at the same time, as under {@code mvn -T}.
+ */
+public class ParallelBuildTest extends TestCase {
+
+    private static final int MODULES = 6;
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TestFiles.createDirectory();
+        for (int i = 0; i < MODULES; i++) {
+            File module = module(i);
+            TestFiles.write(new File(module, "app/views/main.scala.html"),
+                    "@(title: String)(content: Html)\n<html><title>@title</title>@content</html>\n");
+            TestFiles.write(new File(module, "app/views/index.scala.html"),
+                    "@()\n@main(\"module" + i + "\") {\n<p>module" + i + "</p>\n}\n");
+            TestFiles.write(new File(module, "conf/routes"),
+                    "GET     /module" + i + "  controllers.Application.index()\n");
+        }
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TestFiles.delete(dir);
+    }
+
+    private File module(int i) {
+        return new File(dir, "module" + i);
+    }
+
+    /** Build a module as its compile-templates and compile-routes goals do, returning their metrics. */
+    private BuildMetrics build(File module) {
+        File generated = new File(module, "target/generated-sources/play");
+        generated.mkdirs();
+        BuildMetrics metrics = new BuildMetrics("test");
+        new TemplateCompiler(JavaConversions.asScalaBuffer(Collections.<File>emptyList()).toList(),
+                new TemplateCompilerOptions().setForJava(false).setParallelism(2).setBaseDirectory(module), metrics)
+                .compile(new File(module, "app"), generated, new File(module, "target/play-templates.index"));
+        new PlayRoutesCompiler(new RoutesCompilerOptions().setParallelism(2), metrics)
+                .compile(JavaConversions.asScalaBuffer(Collections.singletonList(new File(module, "conf"))).toList(),
+                        generated, new File(module, "target/play-routes.index"));
+        return metrics;
+    }
+
+    public void testModulesBuildConcurrently() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(MODULES);
+        List<Future<BuildMetrics>> builds = new ArrayList<Future<BuildMetrics>>();
+        try {
+            for (int i = 0; i < MODULES; i++) {
+                final File module = module(i);
+                builds.add(executor.submit(new Callable<BuildMetrics>() {
+                    public BuildMetrics call() throws Exception {
+                        start.await();
+                        return build(module);
+                    }
+                }));
+            }
+            start.countDown();
+
+            for (int i = 0; i < MODULES; i++) {
+                BuildMetrics metrics = builds.get(i).get();
+                assertEquals(2, metrics.counter(BuildMetrics.TEMPLATES_COMPILED));
+                assertEquals(1, metrics.counter(BuildMetrics.ROUTES_COMPILED));
+
+                // each module's output is generated from its own sources only
+                File generated = new File(module(i), "target/generated-sources/play");
+                String index = TestFiles.read(new File(generated, "views/html/index.template.scala"));
+                assertTrue(index.contains("module" + i));
+                assertTrue(index.contains("SOURCE: app/views/index.scala.html"));
+                assertTrue(TestFiles.read(new File(generated, "router/Routes.scala")).contains("module" + i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testModulesShareOneTwirlSession() throws Exception {
+        final scala.collection.immutable.List<File> classpath =
+                JavaConversions.asScalaBuffer(Collections.<File>emptyList()).toList();
+        ExecutorService executor = Executors.newFixedThreadPool(MODULES);
+        List<Future<TwirlSession>> sessions = new ArrayList<Future<TwirlSession>>();
+        try {
+            for (int i = 0; i < MODULES; i++) {
+                sessions.add(executor.submit(new Callable<TwirlSession>() {
+                    public TwirlSession call() {
+                        return TwirlSession.apply(classpath);
+                    }
+                }));
+            }
+            for (Future<TwirlSession> session : sessions) {
+                assertSame(sessions.get(0).get(), session.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import scala.collection.JavaConversions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Routes files compiled against the index of the previous build.
+ */
+public class PlayRoutesCompilerTest extends TestCase {
+
+    private File dir;
+    private File conf;
+    private File generated;
+    private File index;
+    private BuildMetrics metrics;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TestFiles.createDirectory();
+        conf = new File(dir, "conf");
+        generated = new File(dir, "generated");
+        index = new File(dir, "routes.index");
+
+        TestFiles.write(new File(conf, "routes"), "GET     /       controllers.Application.index()\n");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TestFiles.delete(dir);
+    }
+
+    private List<File> compile(RoutesCompilerOptions options, File... routesDirectories) {
+        metrics = new BuildMetrics("test");
+        return JavaConversions.seqAsJavaList(new PlayRoutesCompiler(options, metrics).compile(
+                JavaConversions.asScalaBuffer(Arrays.asList(routesDirectories)).toList(), generated, index));
+    }
+
+    private List<File> compile(RoutesCompilerOptions options) {
+        return compile(options, conf);
+    }
+
+    private List<File> compile() {
+        return compile(new RoutesCompilerOptions().setParallelism(1));
+    }
+
+    private File output(String name) {
+        return new File(generated, name).getAbsoluteFile();
+    }
+
+    public void testUnchangedRoutesAreNotRegenerated() throws IOException {
+        assertTrue(compile().contains(output("router/Routes.scala")));
+        assertEquals(1, metrics.counter(BuildMetrics.ROUTES_COMPILED));
+        File router = output("router/Routes.scala");
+        assertTrue(router.setLastModified(router.lastModified() - 10000));
+        long generatedAt = router.lastModified();
+        String content = TestFiles.read(router);
+
+        // saving the file again changes its timestamp but not its content
+        TestFiles.write(new File(conf, "routes"), TestFiles.read(new File(conf, "routes")));
+        assertEquals(Collections.<File>emptyList(), compile());
+        assertEquals(1, metrics.counter(BuildMetrics.ROUTES_SKIPPED));
+        assertEquals(0, metrics.counter(BuildMetrics.ROUTES_COMPILED));
+        assertEquals(generatedAt, router.lastModified());
+        assertEquals(content, TestFiles.read(router));
+    }
+
+    public void testEditedRoutesAreRegenerated() throws IOException {
+        compile();
+
+        TestFiles.write(new File(conf, "routes"), "GET     /       controllers.Application.index()\n"
+                + "GET     /about  controllers.Application.about()\n");
+        assertTrue(compile().contains(output("router/Routes.scala")));
+        assertEquals(1, metrics.counter(BuildMetrics.ROUTES_COMPILED));
+        assertTrue(TestFiles.read(output("router/Routes.scala")).contains("about"));
+    }
+
+    public void testSettingsChangeRegeneratesTheRoutes() throws IOException {
+        compile();
+        assertTrue(output("controllers/ReverseRoutes.scala").isFile());
+
+        compile(new RoutesCompilerOptions().setParallelism(1).setGenerateReverseRouter(false));
+        assertEquals(1, metrics.counter(BuildMetrics.ROUTES_COMPILED));
+        assertFalse(output("controllers/ReverseRoutes.scala").exists());
+
+        compile(new RoutesCompilerOptions().setParallelism(1).setGenerateReverseRouter(false)
+                .setAdditionalImports(Collections.singletonList("models._")));
+        assertEquals(1, metrics.counter(BuildMetrics.ROUTES_COMPILED));
+        assertTrue(TestFiles.read(output("router/Routes.scala")).contains("import _root_.models._"));
+    }
+
+    /** The main routes file, one for a sub-project beside it and one in a directory of its own. */
+    private File subProjects() throws IOException {
+        File modules = new File(dir, "modules");
+        TestFiles.write(new File(conf, "admin.routes"), "GET     /users  controllers.admin.Users.list()\n");
+        TestFiles.write(new File(modules, "shop.routes"), "GET     /cart   controllers.shop.Cart.show()\n");
+        return modules;
+    }
+
+    public void testEveryRoutesFileGetsItsOwnRouter() throws IOException {
+        File modules = subProjects();
+        List<File> written = compile(new RoutesCompilerOptions().setParallelism(3), conf, modules);
+
+        assertEquals(3, metrics.counter(BuildMetrics.ROUTES_COMPILED));
+        assertTrue(written.contains(output("router/Routes.scala")));
+        assertTrue(written.contains(output("admin/Routes.scala")));
+        assertTrue(written.contains(output("shop/Routes.scala")));
+        assertTrue(TestFiles.read(output("admin/Routes.scala")).contains("package admin"));
+        assertTrue(TestFiles.read(output("shop/Routes.scala")).contains("controllers.shop.Cart.show"));
+    }
+
+    public void testEditingOneRoutesFileLeavesTheOthers() throws IOException {
+        File modules = subProjects();
+        compile(new RoutesCompilerOptions().setParallelism(3), conf, modules);
+        File router = output("router/Routes.scala");
+        assertTrue(router.setLastModified(router.lastModified() - 10000));
+        long generatedAt = router.lastModified();
+
+        TestFiles.write(new File(conf, "admin.routes"), "GET     /users  controllers.admin.Users.list()\n"
+                + "GET     /users/:id  controllers.admin.Users.show(id: Long)\n");
+        List<File> written = compile(new RoutesCompilerOptions().setParallelism(3), conf, modules);
+        assertEquals(1, metrics.counter(BuildMetrics.ROUTES_COMPILED));
+        assertEquals(2, metrics.counter(BuildMetrics.ROUTES_SKIPPED));
+        assertTrue(written.contains(output("admin/Routes.scala")));
+        assertFalse(written.contains(router));
+        assertEquals(generatedAt, router.lastModified());
+    }
+
+    public void testInjectedGenerator() throws IOException {
+        subProjects();
+        compile(new RoutesCompilerOptions().setParallelism(2).setGenerator("injected"));
+        assertTrue(TestFiles.read(output("admin/Routes.scala")).contains("@javax.inject.Inject()"));
+    }
+
+    /** Thrown by scala as the MojoExecutionException it is, so caught as any exception. */
+    public void testRoutesFilesWithTheSameNameAreRejected() throws IOException {
+        File modules = new File(dir, "modules");
+        TestFiles.write(new File(modules, "routes"), "GET     /other  controllers.Other.index()\n");
+        try {
+            compile(new RoutesCompilerOptions().setParallelism(2), conf, modules);
+            fail("Compiled two routers into one package");
+        } catch (Exception e) {
+            assertTrue(e.getMessage().contains("would generate the same router"));
+        }
+    }
+}
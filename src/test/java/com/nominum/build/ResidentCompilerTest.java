@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import scala.collection.JavaConversions;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiles by the in-process compiler of the watch goal, which is given only the sources that changed.
+ */
+public class ResidentCompilerTest extends TestCase {
+
+    private static final String A = "package p\n\nobject A {\n  def greeting: String = \"hi\"\n}\n";
+    private static final String B = "package p\n\nobject B {\n  def message = A.greeting + \"!\"\n}\n";
+    private static final String C = "package p;\n\npublic class C {\n"
+            + "    public static String shout() {\n        return A.greeting().toUpperCase();\n    }\n}\n";
+
+    private File dir;
+    private File sources;
+    private File classes;
+    private ResidentCompiler compiler;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TestFiles.createDirectory();
+        sources = new File(dir, "src");
+        classes = new File(dir, "classes");
+        classes.mkdirs();
+        compiler = new ResidentCompiler(TestFiles.classpath(), classes, "UTF-8");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TestFiles.delete(dir);
+    }
+
+    private File source(String name, String content) throws IOException {
+        File file = new File(sources, "p/" + name);
+        TestFiles.write(file, content);
+        return file;
+    }
+
+    private List<ResidentCompiler.Problem> compile(File... files) {
+        return JavaConversions.seqAsJavaList(compiler.compile(JavaConversions.asScalaBuffer(Arrays.asList(files)).toList()));
+    }
+
+    /** The files with errors among the problems reported. */
+    private List<String> errors(List<ResidentCompiler.Problem> problems) {
+        List<String> files = new ArrayList<String>();
+        for (ResidentCompiler.Problem problem : problems) {
+            if (problem.isError()) {
+                files.add(problem.file().get().getName());
+            }
+        }
+        return files;
+    }
+
+    public void testSignatureChangeRecompilesScalaUsers() throws IOException {
+        File a = source("A.scala", A);
+        File b = source("B.scala", B);
+        assertEquals(new ArrayList<String>(), errors(compile(a, b)));
+
+        source("A.scala", A.replace("def greeting: String", "def greeting(name: String): String"));
+        assertEquals(Arrays.asList("B.scala"), errors(compile(a)));
+    }
+
+    public void testSignatureChangeRecompilesJavaUsers() throws IOException {
+        File a = source("A.scala", A);
+        File c = source("C.java", C);
+        assertEquals(new ArrayList<String>(), errors(compile(a, c)));
+
+        source("A.scala", A.replace("def greeting: String", "def greeting(name: String): String"));
+        assertEquals(Arrays.asList("C.java"), errors(compile(a)));
+    }
+
+    /** Without recompiling B, it would still call the old method and fail with NoSuchMethodError. */
+    public void testCompatibleSignatureChangeRewritesUsers() throws Exception {
+        File a = source("A.scala", A);
+        File b = source("B.scala", B);
+        assertEquals(new ArrayList<String>(), errors(compile(a, b)));
+
+        source("A.scala", A.replace("def greeting: String = \"hi\"", "def greeting: CharSequence = \"hello\""));
+        assertEquals(new ArrayList<String>(), errors(compile(a)));
+        assertEquals("hello!", message());
+    }
+
+    public void testBodyChangeCompilesOnlyTheChangedSource() throws Exception {
+        File a = source("A.scala", A);
+        File b = source("B.scala", B);
+        assertEquals(new ArrayList<String>(), errors(compile(a, b)));
+        File bClass = new File(classes, "p/B$.class");
+        assertTrue(bClass.setLastModified(bClass.lastModified() - 10000));
+        long compiled = bClass.lastModified();
+
+        source("A.scala", A.replace("\"hi\"", "\"hello\""));
+        assertEquals(new ArrayList<String>(), errors(compile(a)));
+        assertEquals(compiled, bClass.lastModified());
+        assertEquals("hello!", message());
+    }
+
+    private String message() throws Exception {
+        ClassLoader loader = new URLClassLoader(new URL[] {classes.toURI().toURL()}, getClass().getClassLoader());
+        Class<?> b = loader.loadClass("p.B$");
+        Object instance = b.getField("MODULE$").get(null);
+        return (String) b.getMethod("message").invoke(instance);
+    }
+}
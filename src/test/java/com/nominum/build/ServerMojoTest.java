@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import org.apache.maven.project.MavenProject;
+import play.api.PlayException;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Batches of changes handled by the watch goal, as the run goal sees them through its build link.
+ */
+public class ServerMojoTest extends TestCase {
+
+    private File dir;
+    private File app;
+    private File conf;
+    private ReloadingBuildLink link;
+    private ServerMojo mojo;
+    private final List<File> configurationChanges = new ArrayList<File>();
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = TestFiles.createDirectory();
+        app = new File(dir, "app");
+        conf = new File(dir, "conf");
+        File target = new File(dir, "target");
+        File classes = new File(target, "classes");
+        classes.mkdirs();
+
+        link = new ReloadingBuildLink(dir, Collections.singletonList(classes), getClass().getClassLoader(),
+                Collections.<File>emptyList(), Collections.<String, String>emptyMap());
+        mojo = new ServerMojo() {
+            @Override
+            protected void compiled(List<ResidentCompiler.Problem> problems) {
+                link.compiled(problems);
+            }
+
+            @Override
+            protected void configurationChanged(File file) {
+                configurationChanges.add(file);
+            }
+        };
+
+        MavenProject project = new MavenProject();
+        project.setFile(new File(dir, "pom.xml"));
+        project.getBuild().setDirectory(target.getPath());
+        set("project", project);
+        set("buildDirectory", target);
+        set("generatedSourcesDirectory", new File(target, "generated-sources/play"));
+        set("sourceDirectory", app);
+        set("confDirectory", conf);
+        set("generateReverseRouter", true);
+        set("namespaceReverseRouter", false);
+        set("splitReverseRouter", false);
+        set("routesGenerator", "static");
+        set("forJava", false);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TestFiles.delete(dir);
+    }
+
+    private void set(String field, Object value) throws Exception {
+        Field f = ServerMojo.class.getDeclaredField(field);
+        f.setAccessible(true);
+        f.set(mojo, value);
+    }
+
+    /** Write a file and handle the change, as the watch goal does once its quiet period is over. */
+    private void change(File file, String content) throws Exception {
+        TestFiles.write(file, content);
+        mojo.handle(new ChangeBatcher.Batch(new LinkedHashSet<File>(Collections.singletonList(file)),
+                new LinkedHashSet<File>(), System.nanoTime()));
+    }
+
+    private void assertReloads() {
+        assertTrue(link.reload() instanceof ClassLoader);
+    }
+
+    private PlayException.ExceptionSource assertError() {
+        Object reload = link.reload();
+        assertTrue(String.valueOf(reload), reload instanceof PlayException.ExceptionSource);
+        return (PlayException.ExceptionSource) reload;
+    }
+
+    public void testRevertedTemplateClearsTheError() throws Exception {
+        File template = new File(app, "views/index.scala.html");
+        String working = "@(title: String)\n<h1>@title</h1>\n";
+        change(template, working);
+        assertReloads();
+
+        change(template, "@(title: String)\n@if(true) {\n<h1>@title</h1>\n");
+        assertEquals(template.getAbsolutePath(), assertError().sourceName());
+
+        // the reverted template matches the index, so nothing is regenerated
+        change(template, working);
+        assertReloads();
+    }
+
+    public void testRevertedRoutesClearTheError() throws Exception {
+        File routes = new File(conf, "routes");
+        String working = "GET     /       controllers.Application.index()\n";
+        change(routes, working);
+        assertReloads();
+
+        change(routes, "GET     /\n" + working);
+        PlayException.ExceptionSource error = assertError();
+        assertEquals(routes.getAbsolutePath(), error.sourceName());
+        assertEquals(Integer.valueOf(1), error.line());
+
+        change(routes, working);
+        assertReloads();
+    }
+
+    public void testFilesBelowConfAreConfiguration() throws Exception {
+        File nested = new File(conf, "sub/views.scala.html");
+        TestFiles.write(nested, "<p>not a template</p>\n");
+        mojo.fileChanged(nested);
+        mojo.fileDeleted(nested);
+
+        assertEquals(Arrays.asList(nested, nested), configurationChanges);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import scala.collection.JavaConversions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * The index kept between builds of what each source was compiled from and into.
+ */
+public class SourceIndexTest extends TestCase {
+
+    private File dir;
+    private File indexFile;
+    private File generated;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TestFiles.createDirectory();
+        indexFile = new File(dir, "target/play-templates.index");
+        generated = new File(dir, "generated");
+        TestFiles.write(new File(generated, "views/html/index.template.scala"), "object index\n");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TestFiles.delete(dir);
+    }
+
+    private SourceIndex saved(String settings) {
+        SourceIndex index = new SourceIndex(indexFile, settings);
+        index.update("views/index.scala.html", "12:34", "hash",
+                JavaConversions.asScalaBuffer(Collections.singletonList("views/html/index.template.scala")).toList());
+        index.save();
+        return index;
+    }
+
+    public void testUnchangedSourceIsUpToDateInTheNextBuild() {
+        saved("forJava=false");
+
+        SourceIndex index = new SourceIndex(indexFile, "forJava=false");
+        assertTrue(index.isLoaded());
+        assertTrue(index.isUpToDate("views/index.scala.html", "hash", generated));
+        assertFalse(index.isUpToDate("views/index.scala.html", "edited", generated));
+        assertFalse(index.isUpToDate("views/about.scala.html", "hash", generated));
+    }
+
+    public void testMissingOutputIsNotUpToDate() {
+        saved("forJava=false");
+        assertTrue(new File(generated, "views/html/index.template.scala").delete());
+
+        assertFalse(new SourceIndex(indexFile, "forJava=false").isUpToDate("views/index.scala.html", "hash", generated));
+    }
+
+    public void testHashIsKnownOnlyForTheSameStamp() {
+        saved("forJava=false");
+
+        SourceIndex index = new SourceIndex(indexFile, "forJava=false");
+        assertEquals("hash", index.knownHash("views/index.scala.html", "12:34").get());
+        assertTrue(index.knownHash("views/index.scala.html", "12:35").isEmpty());
+    }
+
+    public void testSettingsChangeDiscardsEntriesButNotTheirOutputs() {
+        saved("forJava=false");
+
+        SourceIndex index = new SourceIndex(indexFile, "forJava=true");
+        assertTrue(index.isLoaded());
+        assertFalse(index.isUpToDate("views/index.scala.html", "hash", generated));
+        // still known, so they are deleted unless compiled again
+        assertEquals(Collections.singleton("views/html/index.template.scala"),
+                JavaConversions.setAsJavaSet(index.staleOutputs()));
+    }
+
+    public void testDamagedLinesAreIgnored() throws IOException {
+        saved("forJava=false");
+        Files.write(indexFile.toPath(), Arrays.asList(Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8).get(0),
+                "views/about.scala.html\ttruncated"), StandardCharsets.UTF_8);
+
+        SourceIndex index = new SourceIndex(indexFile, "forJava=false");
+        assertTrue(index.isLoaded());
+        assertTrue(index.sources().isEmpty());
+    }
+
+    public void testUnknownFileIsNotLoaded() throws IOException {
+        TestFiles.write(indexFile, "not an index\n");
+        assertFalse(new SourceIndex(indexFile, "forJava=false").isLoaded());
+    }
+}
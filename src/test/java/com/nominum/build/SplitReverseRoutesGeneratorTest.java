@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import play.routes.compiler.RoutesCompiler;
+import play.routes.compiler.RoutesFileParser$;
+import play.routes.compiler.RoutesGenerator;
+import play.routes.compiler.Rule;
+import play.routes.compiler.StaticRoutesGenerator$;
+import scala.Option;
+import scala.Tuple2;
+import scala.collection.JavaConversions;
+import scala.collection.Seq;
+import scala.collection.immutable.List;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class SplitReverseRoutesGeneratorTest extends TestCase {
+
+    /** Two controllers with several routes each, whose routes are interleaved in the file. */
+    private static final String ROUTES =
+            "GET     /a                controllers.A.index()\n"
+            + "GET     /a/:id            controllers.A.show(id: Long)\n"
+            + "GET     /b                controllers.B.list()\n"
+            + "POST    /b/:id            controllers.B.update(id: Long)\n"
+            + "GET     /a/:id/edit       controllers.A.edit(id: Long)\n";
+
+    private static final Pattern CLASS = Pattern.compile("class (\\w+)\\(");
+    private static final Pattern CLASS_LINE = Pattern.compile("(?m)^  // @LINE:(\\d+)$");
+
+    private File dir;
+    private File routes;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TestFiles.createDirectory();
+        routes = new File(dir, "conf/routes");
+        TestFiles.write(routes, ROUTES);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TestFiles.delete(dir);
+    }
+
+    public void testEachClassIsInOneFileOfItsOwn() {
+        Map<String, String> files = generate(StaticRoutesGenerator$.MODULE$);
+
+        assertOneClassPerFile(files, "controllers/ReverseA.scala", "controllers/ReverseB.scala",
+                "controllers/javascript/ReverseA.scala", "controllers/javascript/ReverseB.scala");
+        assertFalse(files.containsKey("controllers/ReverseRoutes.scala"));
+    }
+
+    /** Play versions that mark a reverse router with a line comment for every route keep those comments with it. */
+    public void testClassKeepsEveryLineComment() {
+        Map<String, String> files = generate(new RoutesGenerator() {
+            public String id() {
+                return "marked";
+            }
+
+            public Seq<Tuple2<String, String>> generate(RoutesCompiler.RoutesCompilerTask task, Option<String> namespace,
+                                                        List<Rule> rules) {
+                java.util.List<Tuple2<String, String>> marked = new ArrayList<Tuple2<String, String>>();
+                for (Tuple2<String, String> file : JavaConversions.seqAsJavaList(
+                        StaticRoutesGenerator$.MODULE$.generate(task, namespace, rules))) {
+                    marked.add(new Tuple2<String, String>(file._1(), file._2()
+                            .replace("// @LINE:1\npackage", "// @LINE:5\n// @LINE:4\n// @LINE:3\n// @LINE:2\n// @LINE:1\npackage")
+                            .replace("  // @LINE:1\n  class ReverseA", "  // @LINE:5\n  // @LINE:2\n  // @LINE:1\n  class ReverseA")
+                            .replace("  // @LINE:3\n  class ReverseB", "  // @LINE:4\n  // @LINE:3\n  class ReverseB")));
+                }
+                return JavaConversions.asScalaBuffer(marked);
+            }
+        });
+
+        assertOneClassPerFile(files, "controllers/ReverseA.scala", "controllers/ReverseB.scala");
+        assertEquals(Collections.singleton("ReverseA"), classes(files.get("controllers/ReverseA.scala")));
+        assertEquals(Arrays.asList("5", "2", "1"), classLines(files.get("controllers/ReverseA.scala")));
+        assertEquals(Arrays.asList("4", "3"), classLines(files.get("controllers/ReverseB.scala")));
+    }
+
+    public void testEditingOneControllerLeavesTheOthersFileAlone() throws IOException {
+        PlayRoutesCompiler compiler = new PlayRoutesCompiler(
+                new RoutesCompilerOptions().setSplitReverseRouter(true).setParallelism(1), new BuildMetrics("test"));
+        File generated = new File(dir, "generated");
+        File index = new File(dir, "play-routes.index");
+        compile(compiler, generated, index);
+
+        TestFiles.write(routes, ROUTES.replace("POST    /b/:id ", "PUT     /b/:id "));
+        java.util.List<File> written = compile(compiler, generated, index);
+
+        assertTrue(written.contains(new File(generated, "controllers/ReverseB.scala").getAbsoluteFile()));
+        assertFalse(written.contains(new File(generated, "controllers/ReverseA.scala").getAbsoluteFile()));
+        assertFalse(written.contains(new File(generated, "controllers/javascript/ReverseA.scala").getAbsoluteFile()));
+    }
+
+    private java.util.List<File> compile(PlayRoutesCompiler compiler, File generated, File index) {
+        return JavaConversions.seqAsJavaList(compiler.compile(
+                JavaConversions.asScalaBuffer(Collections.singletonList(routes.getParentFile())).toList(), generated, index));
+    }
+
+    private Map<String, String> generate(RoutesGenerator base) {
+        List<Rule> rules = RoutesFileParser$.MODULE$.parse(routes).right().get();
+        RoutesCompiler.RoutesCompilerTask task = new RoutesCompiler.RoutesCompilerTask(routes,
+                JavaConversions.asScalaBuffer(Collections.<String>emptyList()), true, true, false);
+        Map<String, String> files = new HashMap<String, String>();
+        for (Tuple2<String, String> file : JavaConversions.seqAsJavaList(
+                new SplitReverseRoutesGenerator(base).generate(task, Option.<String>empty(), rules))) {
+            files.put(file._1().replaceAll("/+", "/"), file._2());
+        }
+        return files;
+    }
+
+    /** Every reverse router class is in exactly one file, named after it. */
+    private static void assertOneClassPerFile(Map<String, String> files, String... expected) {
+        for (String name : expected) {
+            assertTrue(name + " was not generated", files.containsKey(name));
+            String className = name.substring(name.lastIndexOf('/') + 1).replace(".scala", "");
+            assertEquals(name, Collections.singleton(className), classes(files.get(name)));
+        }
+        Map<String, String> seen = new HashMap<String, String>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            for (String className : classes(file.getValue())) {
+                String key = file.getKey().substring(0, file.getKey().lastIndexOf('/') + 1) + className;
+                String previous = seen.put(key, file.getKey());
+                assertNull(className + " is in " + previous + " and " + file.getKey(), previous);
+            }
+        }
+    }
+
+    private static Set<String> classes(String code) {
+        Set<String> classes = new TreeSet<String>();
+        Matcher matcher = CLASS.matcher(code);
+        while (matcher.find()) {
+            classes.add(matcher.group(1));
+        }
+        return classes;
+    }
+
+    /** Lines recorded by the comments of the classes in a file. */
+    private static java.util.List<String> classLines(String code) {
+        java.util.List<String> lines = new ArrayList<String>();
+        Matcher matcher = CLASS_LINE.matcher(code);
+        while (matcher.find()) {
+            lines.add(matcher.group(1));
+        }
+        return lines;
+    }
+}
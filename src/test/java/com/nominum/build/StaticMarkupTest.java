@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import play.twirl.api.Content;
+import play.twirl.compiler.GeneratedSource;
+import scala.collection.JavaConversions;
+import scala.io.Codec$;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Templates compiled with their static text hoisted must render as they do without it, and their
+ * compile errors must be reported on the same template lines.
+ */
+public class StaticMarkupTest extends TestCase {
+
+    private static final File SMOKE_PROJECT_SOURCES = new File("src/test/resources/play-maven-project/app");
+
+    private static final String BROKEN_TEMPLATE =
+            "@(items: Seq[String])\n"
+            + "<html>\n"
+            + "<body>\n"
+            + "<h1>Items</h1>\n"
+            + "<ul>\n"
+            + "@for(item <- items) {\n"
+            + "  <li>@item</li>\n"
+            + "}\n"
+            + "</ul>\n"
+            + "<p>@items.size.noSuchMethod</p>\n"
+            + "</body>\n"
+            + "</html>\n";
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TestFiles.createDirectory();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TestFiles.delete(dir);
+    }
+
+    private File compileTemplates(File sourceDir, boolean hoistStaticMarkup) {
+        File generated = new File(dir, (hoistStaticMarkup ? "hoisted" : "plain") + "/generated");
+        generated.mkdirs();
+        new TemplateCompiler(JavaConversions.asScalaBuffer(Collections.<File>emptyList()).toList(),
+                new TemplateCompilerOptions().setForJava(false).setParallelism(1)
+                        .setHoistStaticMarkup(hoistStaticMarkup),
+                new BuildMetrics("test")).compile(sourceDir, generated);
+        return generated;
+    }
+
+    private List<String> render(boolean hoistStaticMarkup) throws Exception {
+        File generated = compileTemplates(SMOKE_PROJECT_SOURCES, hoistStaticMarkup);
+        ClassLoader loader = TestFiles.load(
+                new File(dir, (hoistStaticMarkup ? "hoisted" : "plain") + "/classes"), generated);
+        List<String> bodies = new ArrayList<String>();
+        for (String template : new String[] {"views.html.index$", "views.js.test$"}) {
+            Object instance = loader.loadClass(template).getField("MODULE$").get(null);
+            bodies.add(((Content) instance.getClass().getMethod("apply").invoke(instance)).body());
+        }
+        return bodies;
+    }
+
+    public void testSmokeProjectRendersTheSame() throws Exception {
+        List<String> plain = render(false);
+        List<String> hoisted = render(true);
+
+        assertEquals(plain, hoisted);
+        assertTrue(plain.get(0).contains("Test Template"));
+        // otherwise nothing was hoisted and the comparison proves nothing
+        File generated = new File("views/html/index.template.scala");
+        assertFalse(TestFiles.read(new File(dir, "plain/generated/" + generated))
+                .equals(TestFiles.read(new File(dir, "hoisted/generated/" + generated))));
+    }
+
+    /** The template line of the first error scalac reports for the generated code. */
+    private int errorLine(File sourceDir, boolean hoistStaticMarkup) {
+        File generated = compileTemplates(sourceDir, hoistStaticMarkup);
+        for (ResidentCompiler.Problem problem : TestFiles.compile(
+                new File(dir, (hoistStaticMarkup ? "hoisted" : "plain") + "/classes"), generated)) {
+            if (problem.isError()) {
+                return new GeneratedSource(problem.file().get(), Codec$.MODULE$.UTF8()).mapLine(problem.line());
+            }
+        }
+        fail("The broken template compiled");
+        return 0;
+    }
+
+    public void testErrorsMapToTheSameTemplateLine() throws Exception {
+        File sources = new File(dir, "app");
+        TestFiles.write(new File(sources, "views/broken.scala.html"), BROKEN_TEMPLATE);
+
+        assertEquals(10, errorLine(sources, false));
+        assertEquals(10, errorLine(sources, true));
+    }
+}
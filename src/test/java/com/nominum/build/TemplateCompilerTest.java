@@ -0,0 +1,191 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import scala.collection.JavaConversions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Incremental template compiles: what the index makes the compiler skip, recompile and delete.
+ */
+public class TemplateCompilerTest extends TestCase {
+
+    private File dir;
+    private File sources;
+    private File generated;
+    private File index;
+    private BuildMetrics metrics;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = TestFiles.createDirectory();
+        sources = new File(dir, "app");
+        generated = new File(dir, "generated");
+        generated.mkdirs();
+        index = new File(dir, "twirl.index");
+
+        TestFiles.write(new File(sources, "views/main.scala.html"),
+                "@(title: String)(content: Html)\n<html><title>@title</title>@content</html>\n");
+        TestFiles.write(new File(sources, "views/index.scala.html"),
+                "@(message: String)\n@main(\"Home\") {\n<p>@message</p>\n}\n");
+        TestFiles.write(new File(sources, "views/about.scala.html"),
+                "<p>About</p>\n");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TestFiles.delete(dir);
+    }
+
+    /** A compiler with fresh metrics, as each goal execution has. */
+    private TemplateCompiler compiler(TemplateCompilerOptions options) {
+        metrics = new BuildMetrics("test");
+        return new TemplateCompiler(JavaConversions.asScalaBuffer(Collections.<File>emptyList()).toList(),
+                options.setParallelism(1), metrics);
+    }
+
+    private TemplateCompiler compiler() {
+        return compiler(new TemplateCompilerOptions().setForJava(false));
+    }
+
+    private void compileAll(TemplateCompiler compiler) {
+        compiler.compile(sources, generated, index);
+    }
+
+    private List<File> compileChanged(String template) {
+        return JavaConversions.seqAsJavaList(compiler().compileChanged(sources, generated, index,
+                JavaConversions.asScalaBuffer(Collections.singletonList(new File(sources, template))).toList()));
+    }
+
+    private File output(String name) {
+        return new File(generated, "views/html/" + name + ".template.scala").getAbsoluteFile();
+    }
+
+    public void testUnchangedTemplatesAreSkipped() throws IOException {
+        compileAll(compiler());
+        assertEquals(3, metrics.counter(BuildMetrics.TEMPLATES_COMPILED));
+        for (String name : new String[] {"main", "index", "about"}) {
+            assertTrue(output(name).setLastModified(output(name).lastModified() - 10000));
+        }
+        long generatedAt = output("index").lastModified();
+
+        compileAll(compiler());
+        assertEquals(3, metrics.counter(BuildMetrics.TEMPLATES_SKIPPED));
+        assertEquals(0, metrics.counter(BuildMetrics.TEMPLATES_COMPILED));
+        assertEquals(generatedAt, output("index").lastModified());
+
+        // a template whose output is gone is generated again, the others are left alone
+        assertTrue(output("about").delete());
+        TestFiles.write(new File(sources, "views/index.scala.html"), "@(message: String)\n<p>@message</p>\n");
+        compileAll(compiler());
+        assertEquals(1, metrics.counter(BuildMetrics.TEMPLATES_SKIPPED));
+        assertEquals(2, metrics.counter(BuildMetrics.TEMPLATES_COMPILED));
+        assertTrue(output("about").isFile());
+        assertFalse(TestFiles.read(output("index")).contains("Home"));
+    }
+
+    public void testSignatureChangeRecompilesCallers() throws IOException {
+        compileAll(compiler());
+
+        TestFiles.write(new File(sources, "views/main.scala.html"),
+                "@(title: String, lang: String)(content: Html)\n<html lang=\"@lang\"><title>@title</title>@content</html>\n");
+        assertEquals(Arrays.asList(output("main"), output("index")), compileChanged("views/main.scala.html"));
+        assertEquals(1, metrics.counter(BuildMetrics.TEMPLATES_COMPILED));
+        assertEquals(1, metrics.counter(BuildMetrics.DEPENDENTS_RECOMPILED));
+    }
+
+    public void testBodyOnlyChangeDoesNotRecompileCallers() throws IOException {
+        compileAll(compiler());
+
+        TestFiles.write(new File(sources, "views/main.scala.html"),
+                "@(title: String)(content: Html)\n<html><title>@title</title><body>@content</body></html>\n");
+        assertEquals(Collections.singletonList(output("main")), compileChanged("views/main.scala.html"));
+        assertEquals(1, metrics.counter(BuildMetrics.TEMPLATES_COMPILED));
+        assertEquals(0, metrics.counter(BuildMetrics.DEPENDENTS_RECOMPILED));
+    }
+
+    public void testDeletedTemplateRemovesItsOutput() throws IOException {
+        compileAll(compiler());
+        assertTrue(output("about").isFile());
+
+        assertTrue(new File(sources, "views/about.scala.html").delete());
+        compileAll(compiler());
+        assertFalse(output("about").exists());
+        assertTrue(output("main").isFile());
+        assertTrue(output("index").isFile());
+        assertEquals(1, metrics.counter(BuildMetrics.STALE_OUTPUTS_DELETED));
+        assertEquals(2, metrics.counter(BuildMetrics.TEMPLATES_SKIPPED));
+        assertEquals(0, metrics.counter(BuildMetrics.TEMPLATES_COMPILED));
+    }
+
+    public void testSettingsChangeRegeneratesEverything() throws IOException {
+        compileAll(compiler());
+        compileAll(compiler());
+        assertEquals(3, metrics.counter(BuildMetrics.TEMPLATES_SKIPPED));
+        assertEquals(0, metrics.counter(BuildMetrics.TEMPLATES_COMPILED));
+
+        compileAll(compiler(new TemplateCompilerOptions().setForJava(true)));
+        assertEquals(0, metrics.counter(BuildMetrics.TEMPLATES_SKIPPED));
+        assertEquals(3, metrics.counter(BuildMetrics.TEMPLATES_COMPILED));
+        assertTrue(TestFiles.read(output("index")).contains("import play.data._"));
+
+        compileAll(compiler(new TemplateCompilerOptions().setForJava(true).setHoistStaticMarkup(true)));
+        assertEquals(0, metrics.counter(BuildMetrics.TEMPLATES_SKIPPED));
+        assertEquals(3, metrics.counter(BuildMetrics.TEMPLATES_COMPILED));
+    }
+
+    public void testGeneratedSourcesDoNotDependOnTheProjectLocation() throws IOException {
+        File cache = new File(dir, "cache");
+        compileAll(compiler(new TemplateCompilerOptions().setForJava(false).setBaseDirectory(dir)
+                .setBuildCache(cache, 10)));
+        assertEquals(3, metrics.counter(BuildMetrics.CACHE_MISSES));
+        assertTrue(TestFiles.read(output("index")).contains("SOURCE: app/views/index.scala.html"));
+
+        // the same project checked out elsewhere, as on another build node
+        File other = new File(dir, "checkout");
+        for (String template : new String[] {"main", "index", "about"}) {
+            File source = new File(sources, "views/" + template + ".scala.html");
+            TestFiles.write(new File(other, "app/views/" + template + ".scala.html"), TestFiles.read(source));
+        }
+        File otherGenerated = new File(other, "generated");
+        otherGenerated.mkdirs();
+        compiler(new TemplateCompilerOptions().setForJava(false).setBaseDirectory(other).setBuildCache(cache, 10))
+                .compile(new File(other, "app"), otherGenerated, new File(other, "twirl.index"));
+        assertEquals(3, metrics.counter(BuildMetrics.CACHE_HITS));
+        assertEquals(TestFiles.read(output("index")),
+                TestFiles.read(new File(otherGenerated, "views/html/index.template.scala")));
+    }
+
+    public void testCleanupFindsTemplatesRelativeToTheBaseDirectory() throws IOException {
+        TemplateCompilerOptions options = new TemplateCompilerOptions().setForJava(false).setBaseDirectory(dir);
+        // without an index, the generated sources are checked against the templates they record
+        compiler(options).compile(sources, generated);
+        compiler(options).compile(sources, generated);
+        assertEquals(0, metrics.counter(BuildMetrics.STALE_OUTPUTS_DELETED));
+
+        assertTrue(new File(sources, "views/about.scala.html").delete());
+        compiler(options).compile(sources, generated);
+        assertEquals(1, metrics.counter(BuildMetrics.STALE_OUTPUTS_DELETED));
+        assertFalse(output("about").exists());
+        assertTrue(output("main").isFile());
+    }
+}
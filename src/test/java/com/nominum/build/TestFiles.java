@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import scala.collection.JavaConversions;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Files for tests that work on a project in a temporary directory. */
+class TestFiles {
+
+    private TestFiles() {
+    }
+
+    static File createDirectory() throws IOException {
+        return Files.createTempDirectory("play-test").toFile();
+    }
+
+    /** Write a file, creating its directory, with a modification time that differs from any previous version. */
+    static void write(File file, String content) throws IOException {
+        long previous = file.lastModified();
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        // file systems with coarse timestamps would otherwise hide the change from size and time checks
+        file.setLastModified(Math.max(System.currentTimeMillis(), previous + 2000));
+    }
+
+    static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    static void delete(File dir) throws IOException {
+        if (!dir.exists()) return;
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Compile the scala and java sources in directories against the test classpath, returning the problems reported. */
+    static List<ResidentCompiler.Problem> compile(File classes, File... sourceDirectories) {
+        classes.mkdirs();
+        scala.collection.Seq<File> sources = ResidentCompiler.sourcesIn(
+                JavaConversions.asScalaBuffer(Arrays.asList(sourceDirectories)).toList());
+        return JavaConversions.seqAsJavaList(new ResidentCompiler(classpath(), classes, "UTF-8").compile(sources));
+    }
+
+    /** The test classpath, for compiling sources that use Play and the Scala library. */
+    static scala.collection.immutable.List<File> classpath() {
+        List<File> classpath = new ArrayList<File>();
+        for (String element : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classpath.add(new File(element));
+        }
+        return JavaConversions.asScalaBuffer(classpath).toList();
+    }
+
+    /** Compile sources that must compile without errors, returning a class loader for them. */
+    static ClassLoader load(File classes, File... sourceDirectories) throws IOException {
+        for (ResidentCompiler.Problem problem : compile(classes, sourceDirectories)) {
+            if (problem.isError()) {
+                throw new IllegalStateException("Sources do not compile: " + problem);
+            }
+        }
+        return new URLClassLoader(new URL[] {classes.toURI().toURL()}, TestFiles.class.getClassLoader());
+    }
+}
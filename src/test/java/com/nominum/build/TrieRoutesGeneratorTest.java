@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import play.api.mvc.RequestHeader;
+import play.api.routing.Router;
+import scala.Option;
+import scala.collection.JavaConversions;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+
+/**
+ * The trie routers must pick the same handler, with the same parameters, as the routers trying each
+ * route in turn, including where several routes match a request and the first one in the file wins.
+ */
+public class TrieRoutesGeneratorTest extends TestCase {
+
+    private static final String ROUTES =
+            "GET     /                       controllers.Items.index()\n"
+            + "GET     /items/new              controllers.Items.create()\n"
+            + "GET     /items/:id              controllers.Items.show(id)\n"
+            + "GET     /items/:id/edit         controllers.Items.edit(id)\n"
+            + "POST    /items/:id              controllers.Items.update(id)\n"
+            + "PUT     /items/new              controllers.Items.replace()\n"
+            + "GET     /files/*path            controllers.Files.get(path)\n"
+            + "GET     /files/readme           controllers.Files.readme()\n"
+            + "GET     /docs/readme            controllers.Files.readme()\n"
+            + "GET     /docs/*path             controllers.Files.doc(path)\n"
+            + "GET     /users/$id<[0-9]+>      controllers.Users.byId(id: Long)\n"
+            + "GET     /users/:name            controllers.Users.byName(name)\n"
+            + "DELETE  /users/:name            controllers.Users.delete(name)\n";
+
+    /** Each action returns the handler it was called with, so a lookup shows the route and the parameters it bound. */
+    private static final String CONTROLLERS =
+            "package controllers\n"
+            + "\n"
+            + "case class Picked(action: String) extends play.api.mvc.Handler\n"
+            + "\n"
+            + "object Items {\n"
+            + "  def index() = Picked(\"Items.index\")\n"
+            + "  def create() = Picked(\"Items.create\")\n"
+            + "  def show(id: String) = Picked(s\"Items.show($id)\")\n"
+            + "  def edit(id: String) = Picked(s\"Items.edit($id)\")\n"
+            + "  def update(id: String) = Picked(s\"Items.update($id)\")\n"
+            + "  def replace() = Picked(\"Items.replace\")\n"
+            + "}\n"
+            + "\n"
+            + "object Files {\n"
+            + "  def get(path: String) = Picked(s\"Files.get($path)\")\n"
+            + "  def readme() = Picked(\"Files.readme\")\n"
+            + "  def doc(path: String) = Picked(s\"Files.doc($path)\")\n"
+            + "}\n"
+            + "\n"
+            + "object Users {\n"
+            + "  def byId(id: Long) = Picked(s\"Users.byId($id)\")\n"
+            + "  def byName(name: String) = Picked(s\"Users.byName($name)\")\n"
+            + "  def delete(name: String) = Picked(s\"Users.delete($name)\")\n"
+            + "}\n";
+
+    /** Builds request headers for the compiled routers, which Play only provides in its test kit. */
+    private static final String REQUESTS =
+            "package controllers\n"
+            + "\n"
+            + "import play.api.mvc.{Headers, RequestHeader}\n"
+            + "\n"
+            + "object Requests {\n"
+            + "  def apply(requestMethod: String, requestPath: String): RequestHeader = new RequestHeader {\n"
+            + "    def id = 1L\n"
+            + "    def tags = Map.empty[String, String]\n"
+            + "    def uri = requestPath\n"
+            + "    def path = requestPath\n"
+            + "    def method = requestMethod\n"
+            + "    def version = \"HTTP/1.1\"\n"
+            + "    def queryString = Map.empty[String, Seq[String]]\n"
+            + "    def headers = new Headers(Nil)\n"
+            + "    def remoteAddress = \"127.0.0.1\"\n"
+            + "    def secure = false\n"
+            + "  }\n"
+            + "}\n";
+
+    private File dir;
+    private Router staticRouter;
+    private Router trieRouter;
+    private Method request;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = TestFiles.createDirectory();
+        File conf = new File(dir, "conf");
+        File app = new File(dir, "app");
+        TestFiles.write(new File(conf, "routes"), ROUTES);
+        TestFiles.write(new File(app, "controllers/Controllers.scala"), CONTROLLERS);
+        TestFiles.write(new File(app, "controllers/Requests.scala"), REQUESTS);
+
+        staticRouter = router("static", conf, app);
+        trieRouter = router("static-trie", conf, app);
+        request = staticRouter.getClass().getClassLoader().loadClass("controllers.Requests")
+                .getMethod("apply", String.class, String.class);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TestFiles.delete(dir);
+    }
+
+    private Router router(String generator, File conf, File app) throws Exception {
+        File generated = new File(dir, generator + "/generated");
+        new PlayRoutesCompiler(new RoutesCompilerOptions().setGenerator(generator).setParallelism(1),
+                new BuildMetrics("test")).compile(
+                JavaConversions.asScalaBuffer(Collections.singletonList(conf)).toList(),
+                generated, new File(dir, generator + "/play-routes.index"));
+        ClassLoader loader = TestFiles.load(new File(dir, generator + "/classes"), app, generated);
+        return (Router) loader.loadClass("router.Routes$").getField("MODULE$").get(null);
+    }
+
+    /** The action each router picks for a request, or null when neither picks one. */
+    private String picked(String method, String path) throws Exception {
+        Object header = request.invoke(null, method, path);
+        Option<?> expected = staticRouter.handlerFor((RequestHeader) header);
+        Option<?> actual = trieRouter.handlerFor((RequestHeader) header);
+        String expectedAction = expected.isEmpty() ? null : expected.get().toString();
+        String actualAction = actual.isEmpty() ? null : actual.get().toString();
+        assertEquals(method + " " + path, expectedAction, actualAction);
+        return expectedAction;
+    }
+
+    public void testStaticPathAndParameter() throws Exception {
+        assertEquals("Picked(Items.index)", picked("GET", "/"));
+        assertEquals("Picked(Items.create)", picked("GET", "/items/new"));
+        assertEquals("Picked(Items.show(42))", picked("GET", "/items/42"));
+        assertEquals("Picked(Items.edit(new))", picked("GET", "/items/new/edit"));
+        assertEquals("Picked(Items.edit(42))", picked("GET", "/items/42/edit"));
+        assertEquals("Picked(Users.byId(7))", picked("GET", "/users/7"));
+        assertEquals("Picked(Users.byName(7a))", picked("GET", "/users/7a"));
+        assertNull(picked("GET", "/items"));
+        assertNull(picked("GET", "/items/42/"));
+        assertNull(picked("GET", "/items/42/edit/more"));
+    }
+
+    public void testWildcardAndSpecificRoutes() throws Exception {
+        // the wildcard comes first, so it shadows the specific route
+        assertEquals("Picked(Files.get(readme))", picked("GET", "/files/readme"));
+        assertEquals("Picked(Files.get(a/b/c))", picked("GET", "/files/a/b/c"));
+        // the specific route comes first, so it only wins for its own path
+        assertEquals("Picked(Files.readme)", picked("GET", "/docs/readme"));
+        assertEquals("Picked(Files.doc(readme/old))", picked("GET", "/docs/readme/old"));
+        assertEquals("Picked(Files.doc(guide))", picked("GET", "/docs/guide"));
+    }
+
+    public void testMethodFallthrough() throws Exception {
+        assertEquals("Picked(Items.update(new))", picked("POST", "/items/new"));
+        assertEquals("Picked(Items.replace)", picked("PUT", "/items/new"));
+        assertEquals("Picked(Users.delete(7))", picked("DELETE", "/users/7"));
+        assertNull(picked("PUT", "/items/42"));
+        assertNull(picked("DELETE", "/items/new"));
+        assertNull(picked("POST", "/files/readme"));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012 Nominum, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nominum.build;
+
+import junit.framework.TestCase;
+import scala.runtime.AbstractFunction1;
+import scala.util.Either;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static scala.collection.JavaConversions.asScalaBuffer;
+import static scala.collection.JavaConversions.asScalaSet;
+import static scala.collection.JavaConversions.mapAsJavaMap;
+import static scala.collection.JavaConversions.seqAsJavaList;
+
+public class UtilTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = File.createTempFile("generated", ".scala");
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testWriteIfChangedIgnoresTwirlDate() throws IOException {
+        write(template("<p>body</p>", "Sun Oct 18 09:39:22 UTC 2026"));
+        assertFalse(Util.writeIfChanged(file, template("<p>body</p>", "Mon Oct 19 10:00:00 UTC 2026")));
+    }
+
+    public void testWriteIfChangedIgnoresRoutesDate() throws IOException {
+        write(routes("Sun Oct 18 09:39:18 UTC 2026"));
+        assertFalse(Util.writeIfChanged(file, routes("Mon Oct 19 10:00:00 UTC 2026")));
+    }
+
+    public void testWriteIfChangedWritesTemplateTextThatLooksLikeADate() throws IOException {
+        String date = "Sun Oct 18 09:39:22 UTC 2026";
+        write(template("DATE: @when", date));
+        byte[] changed = template("DATE: @updated", date);
+        assertTrue(Util.writeIfChanged(file, changed));
+        assertTrue(Arrays.equals(changed, Files.readAllBytes(file.toPath())));
+    }
+
+    public void testWriteIfChangedWritesTemplateTextThatLooksLikeARoutesDate() throws IOException {
+        String date = "Sun Oct 18 09:39:22 UTC 2026";
+        write(template("// @DATE: first", date));
+        assertTrue(Util.writeIfChanged(file, template("// @DATE: second", date)));
+    }
+
+    private void write(byte[] content) throws IOException {
+        Files.write(file.toPath(), content);
+    }
+
+    /** Laid out as Twirl generates a template whose text is a single line. */
+    private static byte[] template(String text, String date) {
+        return ("package views.html\n"
+                + "\n"
+                + "object index extends BaseScalaTemplate[Html,Format[Html]](HtmlFormat) {\n"
+                + "  def apply():play.twirl.api.HtmlFormat.Appendable = {\n"
+                + "    _display_ {\n"
+                + "Seq[Any](format.raw/*1.1*/(\"\"\"<html>\n"
+                + text + "\n"
+                + "</html>\"\"\"))}\n"
+                + "  }\n"
+                + "}\n"
+                + "              /*\n"
+                + "                  -- GENERATED --\n"
+                + "                  DATE: " + date + "\n"
+                + "                  SOURCE: app/views/index.scala.html\n"
+                + "                  -- GENERATED --\n"
+                + "              */\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] routes(String date) {
+        return ("// @GENERATOR:play-routes-compiler\n"
+                + "// @SOURCE:conf/routes\n"
+                + "// @DATE:" + date + "\n"
+                + "\n"
+                + "package router\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** A source tree with templates, generated code and a directory to exclude, scanned by suffix. */
+    private static Map<String, scala.collection.Seq<Util.ScannedFile>> scan(String... excluded) throws IOException {
+        File dir = TestFiles.createDirectory();
+        try {
+            TestFiles.write(new File(dir, "views/index.scala.html"), "<p>index</p>\n");
+            TestFiles.write(new File(dir, "views/admin/users.scala.html"), "<p>users</p>\n");
+            TestFiles.write(new File(dir, "views/feed.scala.xml"), "<feed/>\n");
+            TestFiles.write(new File(dir, "views/html/index.template.scala"), "object index\n");
+            TestFiles.write(new File(dir, "node_modules/pkg/readme.scala.html"), "<p>not a template</p>\n");
+            return mapAsJavaMap(Util.scan(dir, asScalaBuffer(Arrays.asList(".scala.html", ".scala.xml", ".scala")).toList(),
+                    asScalaSet(new HashSet<String>(Arrays.asList(excluded))).toSet()));
+        } finally {
+            TestFiles.delete(dir);
+        }
+    }
+
+    private static List<String> names(scala.collection.Seq<Util.ScannedFile> files) {
+        List<String> names = new ArrayList<String>();
+        for (Util.ScannedFile file : seqAsJavaList(files)) {
+            names.add(file.file().getName());
+        }
+        return names;
+    }
+
+    public void testScanClassifiesFilesBySuffixInOnePass() throws IOException {
+        Map<String, scala.collection.Seq<Util.ScannedFile>> found = scan("node_modules");
+
+        // sorted by path, and listed under every suffix they end with
+        assertEquals(Arrays.asList("users.scala.html", "index.scala.html"), names(found.get(".scala.html")));
+        assertEquals(Collections.singletonList("feed.scala.xml"), names(found.get(".scala.xml")));
+        assertEquals(Collections.singletonList("index.template.scala"), names(found.get(".scala")));
+    }
+
+    public void testScanRecordsSizeAndModificationTime() throws IOException {
+        Util.ScannedFile feed = seqAsJavaList(scan().get(".scala.xml")).get(0);
+        assertEquals("<feed/>\n".length(), feed.size());
+        assertTrue(feed.lastModified() > 0);
+    }
+
+    public void testScanSkipsExcludedDirectories() throws IOException {
+        assertEquals(3, scan().get(".scala.html").size());
+        assertEquals(2, scan("node_modules").get(".scala.html").size());
+    }
+
+    public void testScanOfMissingDirectoryFails() {
+        try {
+            Util.scan(new File(file, "missing"), asScalaBuffer(Collections.singletonList(".scala.html")).toList(),
+                    asScalaSet(Collections.<String>emptySet()).toSet());
+            fail("Scanned a missing directory");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("not found"));
+        }
+    }
+
+    public void testParallelMapReturnsErrorsAsFailuresSequentially() {
+        assertFailsOnlyOnError(1);
+    }
+
+    public void testParallelMapReturnsErrorsAsFailuresInParallel() {
+        assertFailsOnlyOnError(2);
+    }
+
+    private static void assertFailsOnlyOnError(int parallelism) {
+        List<Either<Throwable, String>> outcomes = seqAsJavaList(Util.parallelMap(
+                asScalaBuffer(Arrays.asList("a", "error", "b")).toList(), parallelism,
+                new AbstractFunction1<String, String>() {
+                    public String apply(String item) {
+                        if (item.equals("error")) throw new StackOverflowError();
+                        return item.toUpperCase();
+                    }
+                }));
+        assertEquals("A", outcomes.get(0).right().get());
+        assertTrue(outcomes.get(1).left().get() instanceof StackOverflowError);
+        assertEquals("B", outcomes.get(2).right().get());
+    }
+}